@@ -1,6 +1,9 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Driver class for Add.
  *  @author Avery Bong
@@ -8,15 +11,25 @@ import java.io.File;
 public class Add implements Command {
 
     @Override
-    public int run(Git s, String[] command) {
-        if (command.length != 1) {
+    public int run(Git s, String[] command) throws IOException {
+        if (command.length == 0) {
             throw new GitletException("Incorrect # of args");
         }
-        File file = Utils.join(Main.getCwd(), command[0]);
-        if (!file.exists()) {
-            Main.error("File does not exist.");
+        List<File> files = new ArrayList<>();
+        for (String name : command) {
+            File file = Utils.join(Main.getCwd(), name);
+            if (!file.exists()) {
+                Main.error("File does not exist.");
+            } else if (Main.path(file).equals("..")
+                    || Main.path(file).startsWith("../")) {
+                Main.error("File is outside the working directory.");
+            } else if (file.isDirectory()) {
+                files.addAll(s.changedFiles(file));
+            } else {
+                files.add(file);
+            }
         }
-        s.stage(file);
+        s.stage(files);
         return 0;
     }
 }
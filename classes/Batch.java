@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Runs many commands on one loaded repository.  "gitlet batch" reads
+ *  commands from standard input, one per line, or with "-z" one per
+ *  NUL-terminated record, so that a command may span lines.  Arguments
+ *  are separated by white space and may be quoted with ' or ", or have
+ *  single characters escaped with \.  The repository is read once, every
+ *  command runs on it in turn, and it is saved once at the end.  A
+ *  command that fails has its message printed as usual, is reported with
+ *  its number on standard error, and is undone in memory; the remaining
+ *  commands still run.  A command that crashes is reported and undone the
+ *  same way.
+ *  @author Avery Bong
+ */
+class Batch {
+
+    /** Run the batch command ARGS. */
+    static void run(String[] args) throws IOException {
+        boolean nul = args.length == 2 && args[1].equals("-z");
+        try {
+            if (args.length != 1 && !nul) {
+                throw new GitletException("Incorrect # of args");
+            }
+            Git s = Main.load(args);
+            Reader in = new BufferedReader(new InputStreamReader(System.in));
+            String record;
+            for (int n = 1; (record = next(in, nul)) != null; n += 1) {
+                Git before = s.checkpoint();
+                try {
+                    String[] command = split(record);
+                    if (command.length == 0) {
+                        continue;
+                    } else if (command[0].equals("init")) {
+                        Main.error("A Gitlet version-control system "
+                                + "already exists in the current directory.");
+                    } else if (command[0].equals(COMMAND)
+                            || command[0].equals(Daemon.COMMAND)) {
+                        Main.error("No command with that name exists.");
+                    }
+                    Main.perform(s, command);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                    System.err.println("batch: command " + n + ": "
+                            + excp.getMessage());
+                    s = before;
+                    s.restore();
+                } catch (RuntimeException excp) {
+                    System.err.println("batch: command " + n + ": "
+                            + excp);
+                    s = before;
+                    s.restore();
+                }
+            }
+            Main.save(Main.getSystemFile(), s);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** @return the next record from IN: the rest of the line, or up to the
+     *  next NUL if NUL, without its terminator.  Returns null at the end of
+     *  IN. */
+    private static String next(Reader in, boolean nul) throws IOException {
+        StringBuilder res = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (nul ? c == 0 : c == '\n') {
+                return res.toString();
+            }
+            res.append((char) c);
+        }
+        return res.length() == 0 ? null : res.toString();
+    }
+
+    /** @return the arguments in RECORD. */
+    static String[] split(String record) {
+        List<String> res = new ArrayList<>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for (int i = 0; i < record.length(); i += 1) {
+            char c = record.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"'
+                        && i + 1 < record.length()) {
+                    i += 1;
+                    arg.append(record.charAt(i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    res.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '\\' && i + 1 < record.length()) {
+                    i += 1;
+                    arg.append(record.charAt(i));
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+        if (quote != 0) {
+            Main.error("Unterminated quote.");
+        }
+        if (arg != null) {
+            res.add(arg.toString());
+        }
+        return res.toArray(new String[0]);
+    }
+
+    /** The command that runs a batch. */
+    static final String COMMAND = "batch";
+}
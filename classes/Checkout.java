@@ -20,8 +20,8 @@ public class Checkout implements Command {
             s.checkoutBranch(command[0]);
             break;
         case 2:
-            Git.Node curr = s.branches().get(s.currentBranch());
-            s.checkoutFile(curr.hash(), command[1]);
+            Git.Node curr = s.head();
+            s.checkoutFile(curr._hash, command[1]);
             break;
         case 3:
             if (command[1].equals("++")) {
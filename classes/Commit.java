@@ -11,7 +11,7 @@ public class Commit implements Command {
         String message = command[0];
         if (message.length() <= 0) {
             Main.error("Please enter a commit message.");
-        } else if (s._stage.size() == 0 && s._removal.size() == 0) {
+        } else if (!s.hasStagedChanges()) {
             Main.error("No changes added to the commit.");
         }
         s.makeCommit(s.currentBranch(), command[0], ZonedDateTime.now(), true);
@@ -0,0 +1,510 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** The shape of the commit history, kept apart from the commits
+ *  themselves so that it can be walked without reading them.  Each commit
+ *  has a position, given in the order commits were added, which always
+ *  puts parents before their children.  A fixed-size record per position
+ *  holds the commit's id, its commit time, its generation (one more than
+ *  the largest generation of its parents, or 1 for a root) and the
+ *  positions of its at most two parents.  A commit can only be an ancestor
+ *  of commits of greater generation, which lets ancestry walks stop early.
+ *  Positions are looked up by id in a second memory-mapped file of the
+ *  ids of the first commits sorted, each with its position, by binary
+ *  search, as in CommitIndex; the few commits added after them are kept
+ *  in a map, and are merged into the sorted file once there are more than
+ *  MERGE_AT of them.
+ *  @author Avery Bong
+ */
+public class CommitGraph {
+
+    /** The commit graph of the .gitlet folder STORAGE, which is empty if
+     *  it has not been written yet. */
+    public CommitGraph(File storage) {
+        _storage = storage;
+        _file = Utils.join(storage, GRAPH);
+        _idsFile = Utils.join(storage, IDS);
+        map();
+    }
+
+    /** Map the graph file, creating it empty if it does not exist. */
+    private void map() {
+        try (RandomAccessFile f = new RandomAccessFile(_file, "rw")) {
+            if (f.length() < HEADER) {
+                f.setLength(0);
+                f.writeInt(MAGIC);
+                f.writeInt(0);
+            }
+            _graph = f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    0, f.length());
+        } catch (IOException excp) {
+            throw new GitletException("Could not read commit graph.");
+        }
+        if (_graph.getInt(0) != MAGIC) {
+            throw new GitletException("Corrupt commit graph.");
+        }
+        _size = _graph.getInt(Integer.BYTES);
+        _ids = null;
+        _sorted = 0;
+        if (_idsFile.exists()) {
+            try (FileChannel ch = FileChannel.open(_idsFile.toPath(),
+                    StandardOpenOption.READ)) {
+                _ids = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw new GitletException("Could not read commit graph.");
+            }
+            _sorted = _ids.getInt(0);
+        }
+        _recent = null;
+        if (_sorted > _size || _size - _sorted > MERGE_AT) {
+            sortIds();
+        }
+    }
+
+    /** Rewrite the sorted id file to hold every commit in this graph.  The
+     *  ids already in it are merged with those added since, unless it
+     *  holds more commits than the graph, when it is written afresh. */
+    private void sortIds() {
+        int from = _sorted > _size ? 0 : _sorted;
+        List<byte[]> fresh = new ArrayList<>();
+        for (int k = from; k < _size; k += 1) {
+            byte[] r = Arrays.copyOf(idBytes(k), ID_RECORD);
+            ByteBuffer.wrap(r).putInt(ID_BYTES, k);
+            fresh.add(r);
+        }
+        fresh.sort((x, y) -> Arrays.compareUnsigned(x, 0, ID_BYTES,
+                y, 0, ID_BYTES));
+        int old = from == 0 ? 0 : _sorted;
+        try {
+            File tmp = File.createTempFile("graph", null, _storage);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(old + fresh.size());
+                byte[] r = new byte[ID_RECORD];
+                int k = 0;
+                for (byte[] next : fresh) {
+                    while (k < old && compare(k, next) < 0) {
+                        _ids.get(HEADER_IDS + k * ID_RECORD, r);
+                        out.write(r);
+                        k += 1;
+                    }
+                    out.write(next);
+                }
+                for (; k < old; k += 1) {
+                    _ids.get(HEADER_IDS + k * ID_RECORD, r);
+                    out.write(r);
+                }
+            }
+            Files.move(tmp.toPath(), _idsFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new GitletException("Could not write commit graph.");
+        }
+        map();
+    }
+
+    /** @return the number of commits in this graph. */
+    public int size() {
+        return _size;
+    }
+
+    /** @return the position of the commit with id ID, or NONE if it is not
+     *  in this graph. */
+    public int position(String id) {
+        byte[] key = Utils.fromHex(id);
+        int lo = 0, hi = _sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, key);
+            if (c == 0) {
+                return _ids.getInt(HEADER_IDS + mid * ID_RECORD + ID_BYTES);
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (_recent == null) {
+            _recent = new HashMap<>();
+            for (int k = _sorted; k < _size; k += 1) {
+                _recent.put(id(k), k);
+            }
+        }
+        return _recent.getOrDefault(id, NONE);
+    }
+
+    /** Compare the Kth id of the sorted id file with the id at the start
+     *  of KEY. */
+    private int compare(int k, byte[] key) {
+        int base = HEADER_IDS + k * ID_RECORD;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int c = Integer.compare(_ids.get(base + i) & BYTE,
+                    key[i] & BYTE);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** @return the id of the commit at position K. */
+    public String id(int k) {
+        return Utils.toHex(idBytes(k));
+    }
+
+    /** @return the binary id of the commit at position K. */
+    private byte[] idBytes(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _graph.get(record(k), id);
+        return id;
+    }
+
+    /** @return the commit time, in nanoseconds since the epoch, of the
+     *  commit at position K. */
+    public long time(int k) {
+        return _graph.getLong(record(k) + TIME);
+    }
+
+    /** @return the generation of the commit at position K. */
+    public int generation(int k) {
+        return _graph.getInt(record(k) + GENERATION);
+    }
+
+    /** @return the position of the Ith parent, 0 or 1, of the commit at
+     *  position K, or NONE if it has no such parent. */
+    public int parent(int k, int i) {
+        return _graph.getInt(record(k) + PARENTS + i * Integer.BYTES);
+    }
+
+    /** Add the commits COMMITS, each an id, commit time and list of parent
+     *  ids, in order.  Every parent must already be in this graph or come
+     *  earlier in COMMITS.  Commits already present are skipped. */
+    public void add(List<Entry> commits) {
+        List<Entry> fresh = new ArrayList<>();
+        Map<String, Integer> added = new HashMap<>();
+        for (Entry e : commits) {
+            if (position(e._id) == NONE && !added.containsKey(e._id)) {
+                added.put(e._id, _size + fresh.size());
+                fresh.add(e);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        int[] gens = new int[fresh.size()];
+        try (RandomAccessFile f = new RandomAccessFile(_file, "rw")) {
+            f.seek(record(_size));
+            for (int j = 0; j < fresh.size(); j += 1) {
+                Entry e = fresh.get(j);
+                int[] parents = { NONE, NONE };
+                int gen = 1;
+                for (int i = 0; i < e._parents.size(); i += 1) {
+                    int p = added.getOrDefault(e._parents.get(i),
+                            position(e._parents.get(i)));
+                    if (p == NONE || p >= _size + j) {
+                        throw new GitletException("Corrupt commit graph.");
+                    }
+                    parents[i] = p;
+                    gen = Math.max(gen, 1 + (p < _size ? generation(p)
+                            : gens[p - _size]));
+                }
+                gens[j] = gen;
+                f.write(Utils.fromHex(e._id));
+                f.writeLong(e._time);
+                f.writeInt(gen);
+                f.writeInt(parents[0]);
+                f.writeInt(parents[1]);
+            }
+            f.seek(Integer.BYTES);
+            f.writeInt(_size + fresh.size());
+        } catch (IOException excp) {
+            throw new GitletException("Could not write commit graph.");
+        }
+        map();
+    }
+
+    /** Empty this graph. */
+    public void clear() {
+        _file.delete();
+        _idsFile.delete();
+        map();
+    }
+
+    /** @return true iff the commit at position ANC is an ancestor of the
+     *  commit at position DESC other than DESC itself.  Only commits of
+     *  greater generation than ANC are visited. */
+    public boolean isAncestor(int anc, int desc) {
+        int floor = generation(anc);
+        BitSet seen = new BitSet(_size);
+        int[] todo = new int[_size];
+        int top = 0;
+        todo[top++] = desc;
+        while (top > 0) {
+            int k = todo[--top];
+            for (int i = 0; i < 2; i += 1) {
+                int p = parent(k, i);
+                if (p == anc) {
+                    return true;
+                } else if (p != NONE && !seen.get(p)
+                        && generation(p) > floor) {
+                    seen.set(p);
+                    todo[top++] = p;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return the positions of the commits that are not a parent of any
+     *  other commit. */
+    public BitSet tips() {
+        BitSet res = new BitSet(_size);
+        res.set(0, _size);
+        for (int k = 0; k < _size; k += 1) {
+            for (int i = 0; i < 2; i += 1) {
+                int p = parent(k, i);
+                if (p != NONE) {
+                    res.clear(p);
+                }
+            }
+        }
+        return res;
+    }
+
+    /** @return the positions of the merge bases of the commits at
+     *  positions A and B: their common ancestors (counting each as its
+     *  own ancestor) that are not ancestors of another common ancestor.
+     *  Commits are visited in order of decreasing generation, painted
+     *  with the side or sides they are reached from; a commit reached from
+     *  both is a candidate, and everything below it is painted stale.  The
+     *  walk ends once only stale commits remain to be visited.  There is
+     *  more than one merge base only in criss-cross histories. */
+    public List<Integer> mergeBases(int a, int b) {
+        List<Integer> res = new ArrayList<>();
+        if (a == b) {
+            res.add(a);
+            return res;
+        }
+        Map<Integer, Integer> paint = new HashMap<>();
+        PriorityQueue<int[]> queue = new PriorityQueue<>((x, y) -> {
+            int c = Integer.compare(generation(y[0]), generation(x[0]));
+            return c != 0 ? c : Long.compare(time(y[0]), time(x[0]));
+        });
+        paint.put(a, SIDE_A);
+        paint.put(b, SIDE_B);
+        queue.add(new int[] { a, 1 });
+        queue.add(new int[] { b, 1 });
+        int active = 2;
+        while (active > 0) {
+            int[] entry = queue.poll();
+            active -= entry[1];
+            int k = entry[0];
+            int flags = paint.get(k) & ~RESULT;
+            if ((flags & BOTH) == BOTH && (flags & STALE) == 0) {
+                paint.put(k, paint.get(k) | RESULT);
+                res.add(k);
+                flags |= STALE;
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int p = parent(k, i);
+                if (p == NONE) {
+                    continue;
+                }
+                int old = paint.getOrDefault(p, 0);
+                if ((old & flags) != flags) {
+                    paint.put(p, old | flags);
+                    int live = (flags & STALE) == 0 ? 1 : 0;
+                    queue.add(new int[] { p, live });
+                    active += live;
+                }
+            }
+        }
+        res.removeIf(k -> (paint.get(k) & STALE) != 0);
+        List<Integer> bases = new ArrayList<>();
+        for (int k : res) {
+            boolean redundant = false;
+            for (int j : res) {
+                if (j != k && isAncestor(k, j)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(k);
+            }
+        }
+        return bases;
+    }
+
+    /** @return the positions of the commit at position WANT and of its
+     *  ancestors, unless they are the commit at one of the positions HAVES
+     *  or its ancestor, in order of decreasing generation.  Commits are
+     *  visited in that order from a priority queue, painted with whether
+     *  they were reached from WANT, from HAVES or from both; since a
+     *  commit's descendants all come before it, its paint is final when it
+     *  is visited, and the walk stops once every commit left to visit was
+     *  reached from HAVES.  The history below what the two share is not
+     *  walked. */
+    public List<Integer> missing(int want, Collection<Integer> haves) {
+        Map<Integer, Integer> paint = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+                Integer.compare(generation(y), generation(x)));
+        for (int k : haves) {
+            if (paint.put(k, HAVE) == null) {
+                queue.add(k);
+            }
+        }
+        int wanted = 0;
+        if (!paint.containsKey(want)) {
+            paint.put(want, WANT);
+            queue.add(want);
+            wanted += 1;
+        }
+        List<Integer> res = new ArrayList<>();
+        while (wanted > 0) {
+            int k = queue.poll();
+            int flags = paint.get(k);
+            if (flags == WANT) {
+                res.add(k);
+                wanted -= 1;
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int p = parent(k, i);
+                if (p == NONE) {
+                    continue;
+                }
+                Integer old = paint.get(p);
+                if (old == null) {
+                    paint.put(p, flags);
+                    queue.add(p);
+                    wanted += flags == WANT ? 1 : 0;
+                } else if ((old | flags) != old) {
+                    paint.put(p, old | flags);
+                    wanted -= old == WANT ? 1 : 0;
+                }
+            }
+        }
+        return res;
+    }
+
+    /** A commit to be added to a graph. */
+    static class Entry {
+
+        /** The commit with id ID, commit time TIME in nanoseconds since
+         *  the epoch, and parent ids PARENTS. */
+        Entry(String id, long time, List<String> parents) {
+            _id = id;
+            _time = time;
+            _parents = parents;
+        }
+
+        /** The commit's id. */
+        private final String _id;
+
+        /** The commit's time. */
+        private final long _time;
+
+        /** The ids of the commit's parents. */
+        private final List<String> _parents;
+    }
+
+    /** @return the offset of the record for position K. */
+    private static int record(int k) {
+        return HEADER + k * RECORD;
+    }
+
+    /** The .gitlet folder. */
+    private final File _storage;
+
+    /** The graph file and the sorted id file. */
+    private final File _file, _idsFile;
+
+    /** The mapped graph file. */
+    private MappedByteBuffer _graph;
+
+    /** The mapped sorted id file, or null if there is none. */
+    private MappedByteBuffer _ids;
+
+    /** The number of commits in the graph. */
+    private int _size;
+
+    /** The number of commits in the sorted id file, which are those at
+     *  the first positions. */
+    private int _sorted;
+
+    /** Positions by id of the commits added after those in the sorted id
+     *  file, or null if not yet read. */
+    private Map<String, Integer> _recent;
+
+    /** Name of the graph file. */
+    static final String GRAPH = "commit-graph";
+
+    /** Name of the sorted id file. */
+    static final String IDS = "commit-graph-ids";
+
+    /** Number of commits past the sorted id file at which they are merged
+     *  into it. */
+    static final int MERGE_AT = 1024;
+
+    /** The position of a missing parent. */
+    static final int NONE = -1;
+
+    /** Paint of mergeBases: reached from the first commit, from the
+     *  second, from both, from a common ancestor, or found as a
+     *  candidate. */
+    private static final int SIDE_A = 1, SIDE_B = 2, BOTH = SIDE_A | SIDE_B,
+        STALE = 4, RESULT = 8;
+
+    /** Paint of missing: reached from the commit wanted, or from one the
+     *  other side has. */
+    private static final int WANT = 1, HAVE = 2;
+
+    /** Marks a graph file. */
+    private static final int MAGIC = 0x474c4347;
+
+    /** Bytes in a binary id. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Bytes before the first record. */
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    /** Offsets within a record of the commit time, generation and
+     *  parents. */
+    private static final int TIME = ID_BYTES,
+        GENERATION = TIME + Long.BYTES,
+        PARENTS = GENERATION + Integer.BYTES;
+
+    /** Bytes in a record. */
+    private static final int RECORD = PARENTS + 2 * Integer.BYTES;
+
+    /** Bytes before the first record of the sorted id file. */
+    private static final int HEADER_IDS = Integer.BYTES;
+
+    /** Bytes in a record of the sorted id file: an id and its
+     *  position. */
+    private static final int ID_RECORD = ID_BYTES + Integer.BYTES;
+
+    /** Mask for an unsigned byte. */
+    private static final int BYTE = 0xff;
+}
@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of CommitGraph.mergeBases and missing.
+ *  @author Avery Bong
+ */
+public class CommitGraphTest {
+
+    @Before
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("graphtest").toFile();
+        _graph = new CommitGraph(_dir);
+        _time = 0;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(_dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                .forEach(File::delete);
+        }
+    }
+
+    /** @return the id of the commit named NAME. */
+    private static String id(String name) {
+        return Utils.sha1(name);
+    }
+
+    /** Add the commit NAME with parents PARENTS to the graph, each commit
+     *  later than the last. */
+    private void commit(String name, String... parents) {
+        List<String> ids = new ArrayList<>();
+        for (String p : parents) {
+            ids.add(id(p));
+        }
+        _time += 1;
+        _graph.add(Arrays.asList(new CommitGraph.Entry(id(name), _time,
+                ids)));
+    }
+
+    /** @return the names, among NAMES, of the merge bases of the commits
+     *  A and B. */
+    private Set<String> bases(String a, String b, String... names) {
+        Set<String> res = new HashSet<>();
+        for (int k : _graph.mergeBases(_graph.position(id(a)),
+                _graph.position(id(b)))) {
+            String base = _graph.id(k);
+            for (String n : names) {
+                if (id(n).equals(base)) {
+                    res.add(n);
+                }
+            }
+        }
+        return res;
+    }
+
+    /** @return the set of NAMES. */
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    @Test
+    public void crissCrossTest() {
+        commit("r");
+        commit("a1", "r");
+        commit("b1", "r");
+        commit("a2", "a1", "b1");
+        commit("b2", "b1", "a1");
+        String[] all = { "r", "a1", "b1", "a2", "b2" };
+        assertEquals(set("a1", "b1"), bases("a2", "b2", all));
+        assertEquals(set("a1", "b1"), bases("b2", "a2", all));
+        commit("a3", "a2");
+        commit("b3", "b2");
+        assertEquals(set("a1", "b1"), bases("a3", "b3", "r", "a1", "b1",
+                "a2", "b2", "a3", "b3"));
+    }
+
+    @Test
+    public void unevenTest() {
+        commit("r");
+        commit("base", "r");
+        commit("b1", "base");
+        String last = "base";
+        for (int i = 1; i <= 50; i += 1) {
+            commit("a" + i, last);
+            last = "a" + i;
+        }
+        assertEquals(set("base"), bases(last, "b1", "r", "base"));
+        assertEquals(set("base"), bases("b1", last, "r", "base"));
+        commit("m", "b1", "a20");
+        assertEquals(set("a20"), bases(last, "m", "base", "a20", "b1"));
+    }
+
+    @Test
+    public void ancestorTest() {
+        commit("r");
+        commit("x", "r");
+        commit("y", "x");
+        commit("z", "y");
+        commit("side", "r");
+        String[] all = { "r", "x", "y", "z", "side" };
+        assertEquals(set("x"), bases("z", "x", all));
+        assertEquals(set("x"), bases("x", "z", all));
+        assertEquals(set("z"), bases("z", "z", all));
+        assertEquals(set("r"), bases("side", "z", all));
+        commit("m", "z", "side");
+        assertEquals(set("side"), bases("m", "side", all));
+        assertEquals(set("y"), bases("y", "m", all));
+    }
+
+    @Test
+    public void reopenTest() {
+        String last = "r";
+        commit(last);
+        int n = 2 * CommitGraph.MERGE_AT + 10;
+        for (int i = 0; i < n; i += 1) {
+            commit("c" + i, last);
+            last = "c" + i;
+        }
+        commit("side", "c5");
+        _graph = new CommitGraph(_dir);
+        assertEquals(n + 2, _graph.size());
+        for (int i = 0; i < n; i += 1) {
+            assertEquals(i + 1, _graph.position(id("c" + i)));
+        }
+        assertEquals(CommitGraph.NONE, _graph.position(id("none")));
+        assertEquals(set("c5"), bases(last, "side", "c4", "c5", "c6"));
+    }
+
+    /** @return the names, among NAMES, of the commits missing from a side
+     *  with heads HAVES that wants WANT, in the order found. */
+    private List<String> missing(String want, List<String> haves,
+                                 String... names) {
+        List<Integer> positions = new ArrayList<>();
+        for (String h : haves) {
+            positions.add(_graph.position(id(h)));
+        }
+        List<String> res = new ArrayList<>();
+        for (int k : _graph.missing(_graph.position(id(want)), positions)) {
+            for (String n : names) {
+                if (id(n).equals(_graph.id(k))) {
+                    res.add(n);
+                }
+            }
+        }
+        return res;
+    }
+
+    @Test
+    public void missingTest() {
+        commit("r");
+        commit("a", "r");
+        commit("b", "a");
+        commit("c", "b");
+        commit("x", "a");
+        commit("m", "c", "x");
+        String[] all = { "r", "a", "b", "c", "x", "m" };
+        assertEquals(Arrays.asList("c", "b"),
+                missing("c", Arrays.asList("a"), all));
+        assertEquals(Arrays.asList(), missing("a", Arrays.asList("c"), all));
+        assertEquals(Arrays.asList(), missing("c", Arrays.asList("c"), all));
+        assertEquals(Arrays.asList("m", "c", "b"),
+                missing("m", Arrays.asList("x"), all));
+        assertEquals(Arrays.asList("m", "x"),
+                missing("m", Arrays.asList("c"), all));
+        assertEquals(Arrays.asList("m"),
+                missing("m", Arrays.asList("c", "x"), all));
+        assertEquals(Arrays.asList("c", "b", "a", "r"),
+                missing("c", Arrays.asList(), all));
+    }
+
+    /** The folder holding the graph. */
+    private File _dir;
+
+    /** The graph under test. */
+    private CommitGraph _graph;
+
+    /** The commit time of the last commit added. */
+    private long _time;
+}
@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The ids of all commits in a .gitlet folder, for resolving abbreviated
+ *  ids.  Most ids are kept as sorted 20-byte values in a memory-mapped file
+ *  and found by binary search; ids of commits made since that file was
+ *  last rebuilt are appended to a short second file, which is folded into
+ *  the first once it grows past MERGE_AT entries.
+ *  @author Avery Bong
+ */
+public class CommitIndex {
+
+    /** The commit index of the .gitlet folder STORAGE, which is empty if
+     *  it has not been written yet. */
+    public CommitIndex(File storage) {
+        _storage = storage;
+        _sortedFile = Utils.join(storage, SORTED);
+        _recentFile = Utils.join(storage, RECENT);
+        if (!_sortedFile.exists()) {
+            rebuild(new ArrayList<>());
+        } else {
+            load();
+        }
+    }
+
+    /** Read the index files. */
+    private void load() {
+        try (FileChannel ch = FileChannel.open(_sortedFile.toPath(),
+                StandardOpenOption.READ)) {
+            _sorted = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new GitletException("Could not read commit index.");
+        }
+        _size = _sorted.getInt(0);
+        _recent = new ArrayList<>();
+        if (_recentFile.exists()) {
+            byte[] tail = Utils.readContents(_recentFile);
+            for (int i = 0; i + ID_BYTES <= tail.length; i += ID_BYTES) {
+                byte[] id = new byte[ID_BYTES];
+                System.arraycopy(tail, i, id, 0, ID_BYTES);
+                _recent.add(Utils.toHex(id));
+            }
+        }
+    }
+
+    /** Replace the contents of this index with IDS. */
+    public void rebuild(Collection<String> ids) {
+        TreeSet<String> sorted = new TreeSet<>(ids);
+        try {
+            File tmp = File.createTempFile("commits", null, _storage);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(sorted.size());
+                for (String id : sorted) {
+                    out.write(Utils.fromHex(id));
+                }
+            }
+            Files.move(tmp.toPath(), _sortedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(_recentFile.toPath());
+        } catch (IOException excp) {
+            throw new GitletException("Could not write commit index.");
+        }
+        load();
+    }
+
+    /** Add the commit ids IDS that are not already present. */
+    public void add(Collection<String> ids) {
+        List<String> fresh = new ArrayList<>();
+        for (String id : ids) {
+            if (!resolve(id, 1).contains(id) && !fresh.contains(id)) {
+                fresh.add(id);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        if (_recent.size() + fresh.size() > MERGE_AT) {
+            List<String> all = ids();
+            all.addAll(fresh);
+            rebuild(all);
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(_recentFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String id : fresh) {
+                out.write(Utils.fromHex(id));
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Could not write commit index.");
+        }
+        _recent.addAll(fresh);
+    }
+
+    /** @return all commit ids. */
+    public List<String> ids() {
+        List<String> res = new ArrayList<>(_size + _recent.size());
+        for (int k = 0; k < _size; k += 1) {
+            res.add(id(k));
+        }
+        res.addAll(_recent);
+        return res;
+    }
+
+    /** @return up to LIMIT + 1 of the commit ids that start with PREFIX,
+     *  so that more than LIMIT results means PREFIX is ambiguous. */
+    public List<String> resolve(String prefix, int limit) {
+        List<String> res = new ArrayList<>();
+        if (prefix.length() == 0 || prefix.length() > Utils.UID_LENGTH
+                || !prefix.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return res;
+        }
+        prefix = prefix.toLowerCase();
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        byte[] target = Utils.fromHex(low.toString());
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, target) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < _size && res.size() <= limit; k += 1) {
+            String id = id(k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            res.add(id);
+        }
+        for (String id : _recent) {
+            if (res.size() <= limit && id.startsWith(prefix)
+                    && !res.contains(id)) {
+                res.add(id);
+            }
+        }
+        return res;
+    }
+
+    /** @return the Kth id in the sorted file. */
+    private String id(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _sorted.get(HEADER + k * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Compare the Kth sorted id with ID. */
+    private int compare(int k, byte[] id) {
+        int base = HEADER + k * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int c = Integer.compare(_sorted.get(base + i) & BYTE,
+                    id[i] & BYTE);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** The .gitlet folder. */
+    private final File _storage;
+
+    /** The sorted and recent id files. */
+    private final File _sortedFile, _recentFile;
+
+    /** The mapped sorted file. */
+    private MappedByteBuffer _sorted;
+
+    /** The number of ids in the sorted file. */
+    private int _size;
+
+    /** The ids added since the sorted file was written. */
+    private List<String> _recent;
+
+    /** Name of the sorted id file. */
+    static final String SORTED = "commit-ids";
+
+    /** Name of the recent id file. */
+    static final String RECENT = "commit-ids.new";
+
+    /** Number of recent ids at which they are merged into the sorted
+     *  file. */
+    static final int MERGE_AT = 256;
+
+    /** Bytes before the first sorted id. */
+    private static final int HEADER = 4;
+
+    /** Bytes in a binary id. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Mask for an unsigned byte. */
+    private static final int BYTE = 0xff;
+}
@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/** A long-running server for one repository.  "gitlet daemon", run at the
+ *  top of a working directory, keeps the repository's Git, its caches and
+ *  a warm JVM between commands, and listens on a Unix domain socket in
+ *  .gitlet.  Main sends each command to the daemon when it answers on
+ *  that socket, and otherwise runs it itself.  While it runs, a Watcher
+ *  follows changes to the working files, so status need not look at the
+ *  unchanged ones.  A request is the number of
+ *  arguments followed by each argument; the reply is the command's output
+ *  in pieces, each its length followed by its bytes, ended by -1 and the
+ *  command's exit status.  A command that crashes is reported to its
+ *  client with a non-zero status, and the daemon carries on serving.
+ *  "gitlet daemon --stop" stops it.
+ *  @author Avery Bong
+ */
+class Daemon {
+
+    /** Run the daemon command ARGS: serve the repository in the current
+     *  directory until stopped, or stop the daemon serving it. */
+    static void serve(String[] args) throws IOException {
+        try {
+            if (args.length == 2 && args[1].equals(STOP)) {
+                if (forward(args) == NONE) {
+                    Main.error("No daemon is running.");
+                }
+                return;
+            } else if (args.length != 1) {
+                throw new GitletException("Incorrect # of args");
+            } else if (!Main.getStorageFolder().exists()) {
+                Main.error("Not in an initialized Gitlet directory.");
+            }
+            File sock = socket();
+            if (sock.exists()) {
+                SocketChannel ch = null;
+                try {
+                    ch = connect(sock);
+                } catch (IOException excp) {
+                    Files.delete(sock.toPath());
+                }
+                if (ch != null) {
+                    ch.close();
+                    Main.error("A daemon is already running.");
+                }
+            }
+            new Daemon().run(sock);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Send the command ARGS to the daemon serving this repository and copy
+     *  its reply to standard output.  @return the command's exit status,
+     *  or NONE, having done nothing, if no daemon answers. */
+    static int forward(String[] args) {
+        File sock = socket();
+        if (!sock.exists()) {
+            return NONE;
+        }
+        SocketChannel ch;
+        try {
+            ch = connect(sock);
+        } catch (IOException excp) {
+            return NONE;
+        }
+        try (ch) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(ch)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(ch)));
+            OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+            byte[] buf = new byte[Reply.PIECE];
+            for (int n = in.readInt(); n >= 0; n = in.readInt()) {
+                while (n > 0) {
+                    int k = in.read(buf, 0, Math.min(n, buf.length));
+                    if (k < 0) {
+                        throw new EOFException();
+                    }
+                    stdout.write(buf, 0, k);
+                    n -= k;
+                }
+            }
+            return in.readInt();
+        } catch (IOException excp) {
+            /* The daemon or the reader of the output has gone away. */
+            return 1;
+        }
+    }
+
+    /** Accept and run commands on the socket SOCK until asked to stop. */
+    private void run(File sock) throws IOException {
+        ServerSocketChannel server =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(sock.toPath()));
+        sock.deleteOnExit();
+        Watcher.start(Main.getCwd());
+        reload();
+        PrintStream stdout = System.out;
+        try (server) {
+            while (true) {
+                try (SocketChannel ch = server.accept()) {
+                    String[] args = readRequest(ch);
+                    Reply reply = new Reply(Channels.newOutputStream(ch));
+                    OutputStream out = new BufferedOutputStream(reply);
+                    PrintStream print = new PrintStream(out, true);
+                    if (args.length == 2 && args[0].equals(COMMAND)
+                            && args[1].equals(STOP)) {
+                        print.println("Daemon stopped.");
+                        print.flush();
+                        reply.end(0);
+                        break;
+                    }
+                    System.setOut(print);
+                    Main.setStdout(out);
+                    int status;
+                    try {
+                        status = runCommand(args);
+                    } finally {
+                        System.setOut(stdout);
+                        Main.setStdout(null);
+                        print.flush();
+                    }
+                    reply.end(status);
+                } catch (IOException excp) {
+                    /* The client went away part way through a command. */
+                    reload();
+                }
+            }
+        } finally {
+            Watcher.stop();
+            Files.deleteIfExists(sock.toPath());
+        }
+    }
+
+    /** Run the command ARGS on the warm system, reloading it first if
+     *  another process has saved the repository since, and afterwards if
+     *  the command fails, so that a failed command leaves no trace in
+     *  memory just as it leaves none on disk.  A command that crashes is
+     *  reported on standard output and in the daemon's own error output.
+     *  @return the command's exit status. */
+    private int runCommand(String[] args) throws IOException {
+        if (changed()) {
+            reload();
+        }
+        try {
+            if (args.length == 0) {
+                Main.error("Please enter a command.");
+            } else if (args[0].equals("init")) {
+                Main.error("A Gitlet version-control system "
+                        + "already exists in the current directory.");
+            } else if (args[0].equals(COMMAND)) {
+                Main.error("A daemon is already running.");
+            }
+            Main.execute(_system, args);
+            _stamp = stamp();
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            reload();
+        } catch (RuntimeException excp) {
+            System.out.println("daemon: " + excp);
+            excp.printStackTrace();
+            reload();
+            return 1;
+        } catch (IOException excp) {
+            reload();
+            throw excp;
+        }
+        return 0;
+    }
+
+    /** @return the arguments of the request on CH. */
+    private static String[] readRequest(SocketChannel ch) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(ch)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        return args;
+    }
+
+    /** Read the system afresh from disk. */
+    private void reload() {
+        Main.resetStore();
+        _stamp = stamp();
+        _system = Main.readSystem(Main.getStorageFolder());
+    }
+
+    /** @return true iff the system file has changed since it was last
+     *  read or written here. */
+    private boolean changed() {
+        return !stamp().equals(_stamp);
+    }
+
+    /** @return the size and modification time of the system file. */
+    private static String stamp() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(
+                    Main.getSystemFile().toPath(), BasicFileAttributes.class);
+            return attrs.size() + " " + attrs.lastModifiedTime().toInstant();
+        } catch (IOException excp) {
+            return "";
+        }
+    }
+
+    /** A reply to a client: the output of a command, sent in pieces
+     *  each preceded by its length, and then its exit status. */
+    private static class Reply extends OutputStream {
+
+        /** A reply sent on OUT. */
+        Reply(OutputStream out) {
+            _out = new DataOutputStream(new BufferedOutputStream(out, PIECE));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                _out.writeInt(len);
+                _out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /** End the output with the exit status STATUS. */
+        void end(int status) throws IOException {
+            _out.writeInt(-1);
+            _out.writeInt(status);
+            _out.flush();
+        }
+
+        /** The most bytes the client reads at once. */
+        static final int PIECE = 1 << 16;
+
+        /** Where the reply is sent. */
+        private final DataOutputStream _out;
+    }
+
+    /** @return a connection to the daemon listening on SOCK. */
+    private static SocketChannel connect(File sock) throws IOException {
+        return SocketChannel.open(UnixDomainSocketAddress.of(sock.toPath()));
+    }
+
+    /** @return the daemon's socket. */
+    private static File socket() {
+        return Utils.join(Main.getStorageFolder(), SOCKET);
+    }
+
+    /** The system being served. */
+    private Git _system;
+
+    /** The stamp of the system file when _system was read or saved. */
+    private String _stamp;
+
+    /** The command that runs or stops the daemon. */
+    static final String COMMAND = "daemon";
+
+    /** The status of forward when no daemon answers. */
+    static final int NONE = -1;
+
+    /** The argument that stops the daemon. */
+    static final String STOP = "--stop";
+
+    /** Name of the daemon's socket. */
+    static final String SOCKET = "daemon.sock";
+}
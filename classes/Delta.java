@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Binary deltas between two versions of a blob.  A delta is the lengths
+ *  of the base and the result followed by a sequence of instructions, each
+ *  either copying a range of the base or inserting literal bytes.
+ *  @author Avery Bong
+ */
+class Delta {
+
+    /** @return a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int pending = 0, j = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (j + BLOCK <= target.length) {
+            Integer cand = blocks.get(h);
+            if (cand != null && matches(base, cand, target, j, BLOCK)) {
+                int from = cand, at = j, len = BLOCK;
+                while (from + len < base.length && at + len < target.length
+                        && base[from + len] == target[at + len]) {
+                    len += 1;
+                }
+                while (at > pending && from > 0
+                        && base[from - 1] == target[at - 1]) {
+                    from -= 1;
+                    at -= 1;
+                    len += 1;
+                }
+                insert(out, target, pending, at);
+                out.write(COPY);
+                writeVarint(out, from);
+                writeVarint(out, len);
+                j = pending = at + len;
+                if (j + BLOCK <= target.length) {
+                    h = hash(target, j);
+                }
+            } else {
+                if (j + BLOCK < target.length) {
+                    h = (h - (target[j] & BYTE) * POW) * PRIME
+                        + (target[j + BLOCK] & BYTE);
+                }
+                j += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** @return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = { 0 };
+        if (readVarint(delta, pos) != base.length) {
+            throw new GitletException("Corrupt delta.");
+        }
+        byte[] res = new byte[readVarint(delta, pos)];
+        int at = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int from = readVarint(delta, pos), len = readVarint(delta, pos);
+                System.arraycopy(base, from, res, at, len);
+                at += len;
+            } else {
+                int len = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], res, at, len);
+                pos[0] += len;
+                at += len;
+            }
+        }
+        if (at != res.length) {
+            throw new GitletException("Corrupt delta.");
+        }
+        return res;
+    }
+
+    /** Write an instruction to OUT inserting TARGET[START .. END - 1], if
+     *  that is not empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int start, int end) {
+        if (start < end) {
+            out.write(INSERT);
+            writeVarint(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /** @return true iff the LEN bytes of A at I equal those of B at J. */
+    private static boolean matches(byte[] a, int i, byte[] b, int j,
+                                   int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the rolling hash of the BLOCK bytes of DATA at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + (data[start + k] & BYTE);
+        }
+        return h;
+    }
+
+    /** Write the non-negative N to OUT seven bits at a time, low bits
+     *  first. */
+    private static void writeVarint(ByteArrayOutputStream out, int n) {
+        while (n >= HIGH_BIT) {
+            out.write((n & LOW_BITS) | HIGH_BIT);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    /** @return the number written by writeVarint at POS[0] in DATA, and
+     *  advance POS[0] past it. */
+    private static int readVarint(byte[] data, int[] pos) {
+        int n = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = data[pos[0]] & BYTE;
+            pos[0] += 1;
+            n |= (b & LOW_BITS) << shift;
+            if (b < HIGH_BIT) {
+                return n;
+            }
+        }
+    }
+
+    /** Length of the blocks of the base that copies are found from. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** PRIME to the power BLOCK - 1. */
+    private static final int POW;
+
+    static {
+        int p = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            p *= PRIME;
+        }
+        POW = p;
+    }
+
+    /** Instruction copying from the base. */
+    private static final int COPY = 1;
+
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 0;
+
+    /** Mask for an unsigned byte. */
+    private static final int BYTE = 0xff;
+
+    /** Continuation bit of a varint byte. */
+    private static final int HIGH_BIT = 0x80;
+
+    /** Value bits of a varint byte. */
+    private static final int LOW_BITS = 0x7f;
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Delta.
+ *  @author Avery Bong
+ */
+public class DeltaTest {
+
+    /** Check that the delta from BASE to TARGET turns BASE into TARGET,
+     *  and return it. */
+    private static byte[] roundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta;
+    }
+
+    /** @return N bytes from R. */
+    private static byte[] random(Random r, int n) {
+        byte[] res = new byte[n];
+        r.nextBytes(res);
+        return res;
+    }
+
+    @Test
+    public void emptyTest() {
+        byte[] none = new byte[0];
+        roundTrip(none, none);
+        roundTrip(none, "hello".getBytes());
+        roundTrip("hello".getBytes(), none);
+    }
+
+    @Test
+    public void identicalTest() {
+        byte[] data = random(new Random(1), 10000);
+        byte[] delta = roundTrip(data, data.clone());
+        assertTrue(delta.length < 16);
+    }
+
+    @Test
+    public void shortTest() {
+        roundTrip("abc".getBytes(), "abd".getBytes());
+        roundTrip("0123456789abcdef".getBytes(),
+                "0123456789abcdef!".getBytes());
+    }
+
+    @Test
+    public void differentTest() {
+        Random r = new Random(2);
+        byte[] base = random(r, 5000), target = random(r, 7000);
+        byte[] delta = roundTrip(base, target);
+        assertTrue(delta.length >= target.length);
+    }
+
+    @Test
+    public void editsTest() {
+        Random r = new Random(3);
+        for (int trial = 0; trial < 200; trial += 1) {
+            byte[] base = random(r, r.nextInt(2000));
+            byte[] target = base.clone();
+            for (int e = r.nextInt(5); e > 0 && target.length > 0; e -= 1) {
+                int at = r.nextInt(target.length);
+                int len = r.nextInt(Math.min(50, target.length - at)) + 1;
+                byte[] ins = random(r, r.nextInt(50));
+                byte[] next = new byte[target.length - len + ins.length];
+                System.arraycopy(target, 0, next, 0, at);
+                System.arraycopy(ins, 0, next, at, ins.length);
+                System.arraycopy(target, at + len, next, at + ins.length,
+                        target.length - at - len);
+                target = next;
+            }
+            roundTrip(base, target);
+        }
+    }
+
+    @Test
+    public void largeTest() {
+        Random r = new Random(4);
+        byte[] base = random(r, 1 << 22);
+        byte[] target = Arrays.copyOf(base, base.length + 100);
+        for (int i = 0; i < 100; i += 1) {
+            target[r.nextInt(target.length)] = (byte) i;
+        }
+        byte[] delta = roundTrip(base, target);
+        assertTrue(delta.length < target.length / 100);
+    }
+}
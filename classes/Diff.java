@@ -2,6 +2,7 @@ package gitlet;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
@@ -9,26 +10,50 @@ import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.InvalidPathException;
 
-import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
  *  next.
+ *
+ *  Each distinct line is given a small integer id when the sequences are set,
+ *  so lines are only compared as ints, and lines that occur in only one of
+ *  the sequences, which can never be matched, are set aside before matching
+ *  the rest.  The common subsequence is found by Myers's O((N+M)D) algorithm,
+ *  where D is the number of lines inserted or removed, in its linear-space
+ *  form: the middle of an optimal edit path is found by searching from both
+ *  ends at once, and the two halves are compared in turn, so only a few
+ *  arrays as long as the sequences are ever needed.  With the HISTOGRAM
+ *  algorithm, the sequences are instead split around the longest run of lines
+ *  that occur least often in the first (only once, where there are such
+ *  lines, as in patience diff), and the parts on either side compared in the
+ *  same way, falling back to Myers's algorithm for parts that have no line
+ *  occurring few enough times.  This gives hunks that follow the structure of
+ *  the text better, though not always the fewest of them.
  *  @author P. N. Hilfinger */
 public class Diff {
 
+    /** The ways of finding a common subsequence. */
+    public enum Algorithm {
+        /** A longest common subsequence, by Myers's algorithm. */
+        MYERS,
+        /** A common subsequence built around lines that occur rarely. */
+        HISTOGRAM
+    }
+
     /** Set the sequences currently being compared to the contents
      *  of SEQ1 and SEQ2 (as delivered by their iterators). */
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
         _lines1 = new ArrayList<>(seq1);
         _lines2 = new ArrayList<>(seq2);
-        _lls = null;
-        _todo = null;
+        intern();
     }
 
     /** Set the sequences currently being compared to the contents
@@ -48,8 +73,14 @@ public class Diff {
                 excp) {
             _lines2 = Collections.emptyList();
         }
-        _lls = null;
-        _todo = null;
+        intern();
+    }
+
+    /** Use ALGORITHM to find the common subsequence from now on.  The
+     *  default is Algorithm.MYERS. */
+    public void setAlgorithm(Algorithm algorithm) {
+        _algorithm = algorithm;
+        _match = null;
     }
 
     /** Return the first of the current sequences. */
@@ -76,59 +107,15 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
-        if (_lls == null) {
-            _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
-            for (int[] row : _lls) {
-                Arrays.fill(row, -1);
-            }
-        }
-        if (k1 == 0 || k2 == 0
-                || k1 > _lines1.size() || k2 > _lines2.size()) {
+        if (k1 <= 0 || k2 <= 0
+                || k1 > _ids1.length || k2 > _ids2.length) {
             return 0;
-        } else if (_lls[k1][k2] == -1) {
-            initStack();
-            push(k1, k2, 0);
-            while (!empty()) {
-                pop();
-                if (_llsTop1 == 0 || _llsTop2 == 0) {
-                    _lls[_llsTop1][_llsTop2] = 0;
-                } else if (_lls[_llsTop1][_llsTop2] != -1) {
-                    continue;
-                } else {
-                    switch (_llsState) {
-                    case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                                .equals(_lines2.get(_llsTop2 - 1))) {
-                            push(_llsTop1, _llsTop2, 4);
-                            push(_llsTop1 - 1, _llsTop2 - 1, 0);
-                        } else {
-                            push(_llsTop1, _llsTop2, 1);
-                        }
-                        continue;
-                    case 1:
-                        push(_llsTop1, _llsTop2, 2);
-                        push(_llsTop1, _llsTop2 - 1, 0);
-                        continue;
-                    case 2:
-                        push(_llsTop1, _llsTop2, 3);
-                        push(_llsTop1 - 1, _llsTop2, 0);
-                        continue;
-                    case 3:
-                        _lls[_llsTop1][_llsTop2]
-                                = max(_lls[_llsTop1][_llsTop2 - 1],
-                                _lls[_llsTop1 - 1][_llsTop2]);
-                        continue;
-                    case 4:
-                        _lls[_llsTop1][_llsTop2]
-                                = _lls[_llsTop1 - 1][_llsTop2 - 1] + 1;
-                        continue;
-                    default:
-                        assert false;
-                    }
-                }
-            }
+        } else if (k1 == _ids1.length && k2 == _ids2.length
+                && _algorithm == Algorithm.MYERS) {
+            match();
+            return _matched;
         }
-        return _lls[k1][k2];
+        return count(match(k1, k2, Algorithm.MYERS));
     }
 
     /** Return the length of the longest common subsequence of the current
@@ -142,10 +129,7 @@ public class Diff {
      *  content. */
     public boolean sequencesEqual() {
         checkData();
-        if (_lines1.size() != _lines2.size()) {
-            return false;
-        }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
+        return Arrays.equals(_ids1, _ids2);
     }
 
     /** Return an array containing the int values of the items in LIST. */
@@ -164,30 +148,27 @@ public class Diff {
      *  a sequence of 3n values s01, s02, L0, s11, s12, L1,..., where
      *  si1 is the starting line position of the subsequence in the
      *  first file (0-based), si2 is the starting position in the second
-     *  file, and Li is the length of the subsequence. */
+     *  file, and Li is the length of the subsequence.  With the HISTOGRAM
+     *  algorithm it is a common subsequence, but not necessarily the
+     *  largest. */
     public int[] commonSubsequence() {
-        ArrayDeque<Integer> resultList = new ArrayDeque<>();
-
-        int k1, k2;
-        k1 = _lines1.size(); k2 = _lines2.size();
-        while (k1 > 0 && k2 > 0) {
-            int ls = lls(k1, k2);
-            if (lls(k1 - 1, k2) == ls) {
-                k1 -= 1;
-            } else if (lls(k1, k2 - 1) == ls) {
-                k2 -= 1;
-            } else {
-                int L;
-                L = 1;
-                while (k1 > L && k2 > L && lls(k1 - L - 1, k2 - L) != ls - L
-                        && lls(k1 - L, k2 - L  - 1) != ls - L) {
-                    L += 1;
-                }
-                resultList.offerFirst(L);
-                resultList.offerFirst(k2 - L);
-                resultList.offerFirst(k1 - L);
-                k1 -= L; k2 -= L;
+        checkData();
+        match();
+        ArrayList<Integer> resultList = new ArrayList<>();
+        for (int k1 = 0; k1 < _match.length; k1 += 1) {
+            if (_match[k1] < 0) {
+                continue;
+            }
+            int L;
+            L = 1;
+            while (k1 + L < _match.length
+                    && _match[k1 + L] == _match[k1] + L) {
+                L += 1;
             }
+            resultList.add(k1);
+            resultList.add(_match[k1]);
+            resultList.add(L);
+            k1 += L - 1;
         }
         return toIntArr(resultList);
     }
@@ -224,6 +205,85 @@ public class Diff {
         return toIntArr(result);
     }
 
+    /** Write the edit that converts the first of the sequences being
+     *  compared to the second to OUT as the hunks of a unified diff, each
+     *  headed by the ranges of lines it covers and with up to CONTEXT
+     *  unchanged lines around its changes.  Hunks closer than 2 * CONTEXT
+     *  lines are joined.  The lines are taken to keep their line
+     *  terminators, as those from lines do; a line without one is followed
+     *  by a note that it is the last and has no newline. */
+    public void writeHunks(Writer out, int context) throws IOException {
+        int[] edits = diffs();
+        for (int first = 0, last; first < edits.length; first = last + 4) {
+            last = first;
+            while (last + 4 < edits.length
+                    && edits[last + 4] - edits[last] - edits[last + 1]
+                    <= 2 * context) {
+                last += 4;
+            }
+            int before = min(context, edits[first]);
+            int after = min(context,
+                    _lines1.size() - edits[last] - edits[last + 1]);
+            int start1 = edits[first] - before,
+                start2 = edits[first + 2] - before;
+            int end1 = edits[last] + edits[last + 1] + after,
+                end2 = edits[last + 2] + edits[last + 3] + after;
+            out.write("@@ -" + range(start1, end1) + " +"
+                    + range(start2, end2) + " @@\n");
+            int k1 = start1;
+            for (int e = first; e <= last; e += 4) {
+                for (; k1 < edits[e]; k1 += 1) {
+                    writeLine(out, ' ', _lines1.get(k1));
+                }
+                for (; k1 < edits[e] + edits[e + 1]; k1 += 1) {
+                    writeLine(out, '-', _lines1.get(k1));
+                }
+                for (int k2 = edits[e + 2]; k2 < edits[e + 2] + edits[e + 3];
+                     k2 += 1) {
+                    writeLine(out, '+', _lines2.get(k2));
+                }
+            }
+            for (; k1 < end1; k1 += 1) {
+                writeLine(out, ' ', _lines1.get(k1));
+            }
+        }
+    }
+
+    /** Return the lines [START .. END - 1] as a unified diff numbers them:
+     *  the first line, counting from 1, and the number of lines if not 1.
+     *  An empty range is numbered by the line before it. */
+    private static String range(int start, int end) {
+        if (end - start == 1) {
+            return Integer.toString(end);
+        }
+        return (end == start ? start : start + 1) + "," + (end - start);
+    }
+
+    /** Write LINE to OUT after the character MARK, noting it if it has no
+     *  line terminator. */
+    private static void writeLine(Writer out, char mark, String line)
+            throws IOException {
+        out.write(mark);
+        out.write(line);
+        if (!line.endsWith("\n")) {
+            out.write("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Return the lines of TEXT, each with the newline that ends it, if
+     *  any.  Only the last line may have none. */
+    public static List<String> lines(String text) {
+        List<String> result = new ArrayList<>();
+        for (int start = 0, end; start < text.length(); start = end) {
+            end = text.indexOf('\n', start) + 1;
+            if (end == 0) {
+                end = text.length();
+            }
+            result.add(text.substring(start, end));
+        }
+        return result;
+    }
+
     /** Raise an exception if there are no current data sequences for
      *  comparison. */
     private void checkData() {
@@ -232,45 +292,325 @@ public class Diff {
         }
     }
 
-    /** Initialize work stack for lls. */
-    private void initStack() {
-        _todo = new int[6 * (_lines1.size() +  _lines2.size() + 1)];
-        _todop = 0;
+    /** Give every distinct line of the current sequences an id, and forget
+     *  any common subsequence found for earlier ones. */
+    private void intern() {
+        Map<String, Integer> ids = new HashMap<>();
+        _ids1 = intern(_lines1, ids);
+        _ids2 = intern(_lines2, ids);
+        _distinct = ids.size();
+        _match = null;
+    }
+
+    /** Return the ids of LINES, adding new lines to IDS. */
+    private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        int i;
+        i = 0;
+        for (String line : lines) {
+            Integer id = ids.putIfAbsent(line, ids.size());
+            result[i] = id == null ? ids.size() - 1 : id;
+            i += 1;
+        }
+        return result;
+    }
+
+    /** Find the common subsequence of the current sequences with the
+     *  current algorithm, unless it has been found already. */
+    private void match() {
+        if (_match == null) {
+            _match = match(_ids1.length, _ids2.length, _algorithm);
+            _matched = count(_match);
+        }
+    }
+
+    /** Return, for each of the first K1 lines of the first sequence, the
+     *  position of the line among the first K2 of the second that it is
+     *  matched with in a common subsequence of the two found by ALGORITHM,
+     *  or -1. */
+    private int[] match(int k1, int k2, Algorithm algorithm) {
+        int[] ids1 = Arrays.copyOf(_ids1, k1), ids2 = Arrays.copyOf(_ids2, k2);
+        int[] where1 = shared(ids1, ids2), where2 = shared(ids2, ids1);
+        _a = select(ids1, where1);
+        _b = select(ids2, where2);
+        _paired = new int[_a.length];
+        Arrays.fill(_paired, -1);
+        if (algorithm == Algorithm.HISTOGRAM) {
+            histogram(0, _a.length, 0, _b.length);
+        } else {
+            myers(0, _a.length, 0, _b.length);
+        }
+        int[] result = new int[k1];
+        Arrays.fill(result, -1);
+        for (int k = 0; k < _paired.length; k += 1) {
+            if (_paired[k] >= 0) {
+                result[where1[k]] = where2[_paired[k]];
+            }
+        }
+        _a = _b = _paired = null;
+        return result;
+    }
+
+    /** Return the number of lines matched in MATCH. */
+    private static int count(int[] match) {
+        int n;
+        n = 0;
+        for (int k : match) {
+            if (k >= 0) {
+                n += 1;
+            }
+        }
+        return n;
     }
 
-    /** Push an item on the work stack for computing lls(I1, I2). STATE
-     *  indicates which inner recursive calls have happened so far for these
-     *  arguments. */
-    private void push(int i1, int i2, int state) {
-        _todo[_todop + 1] = i1;
-        _todo[_todop + 2] = i2;
-        _todo[_todop] = state;
-        _todop += 3;
+    /** Return the positions in IDS1 of the lines that also occur in IDS2,
+     *  in order.  No other line of IDS1 can be part of a common
+     *  subsequence, and leaving them out makes sequences with few lines in
+     *  common quick to compare. */
+    private int[] shared(int[] ids1, int[] ids2) {
+        boolean[] present = new boolean[_distinct];
+        for (int id : ids2) {
+            present[id] = true;
+        }
+        int n;
+        n = 0;
+        for (int id : ids1) {
+            if (present[id]) {
+                n += 1;
+            }
+        }
+        int[] result = new int[n];
+        n = 0;
+        for (int k = 0; k < ids1.length; k += 1) {
+            if (present[ids1[k]]) {
+                result[n] = k;
+                n += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids in IDS at the positions WHERE. */
+    private static int[] select(int[] ids, int[] where) {
+        int[] result = new int[where.length];
+        for (int k = 0; k < where.length; k += 1) {
+            result[k] = ids[where[k]];
+        }
+        return result;
+    }
+
+    /** Record a longest common subsequence of lines [LO1 .. HI1 - 1] of _a
+     *  and [LO2 .. HI2 - 1] of _b in _paired. */
+    private void myers(int lo1, int hi1, int lo2, int hi2) {
+        ArrayDeque<int[]> todo = new ArrayDeque<>();
+        todo.push(new int[] { lo1, hi1, lo2, hi2 });
+        while (!todo.isEmpty()) {
+            int[] r = todo.pop();
+            if (!trim(r)) {
+                continue;
+            }
+            int[] mid = bisect(r[0], r[1], r[2], r[3]);
+            if (mid != null) {
+                todo.push(new int[] { mid[0], r[1], mid[1], r[3] });
+                todo.push(new int[] { r[0], mid[0], r[2], mid[1] });
+            }
+        }
+    }
+
+    /** Record the lines that the parts R = { LO1, HI1, LO2, HI2 } of _a
+     *  and _b start and end with in common in _paired, and shrink R to
+     *  what lies between them.  Return true iff neither part of R is left
+     *  empty. */
+    private boolean trim(int[] r) {
+        while (r[0] < r[1] && r[2] < r[3] && _a[r[0]] == _b[r[2]]) {
+            _paired[r[0]] = r[2];
+            r[0] += 1;
+            r[2] += 1;
+        }
+        while (r[0] < r[1] && r[2] < r[3]
+                && _a[r[1] - 1] == _b[r[3] - 1]) {
+            r[1] -= 1;
+            r[3] -= 1;
+            _paired[r[1]] = r[3];
+        }
+        return r[0] < r[1] && r[2] < r[3];
+    }
+
+    /** Return the point { K1, K2 } in the middle of a shortest edit path
+     *  from lines [LO1 .. HI1 - 1] of _a to lines [LO2 .. HI2 - 1] of _b,
+     *  found by extending the furthest reaching paths of each number of
+     *  edits forward from the start and backward from the end until they
+     *  overlap, or null if the two have no line in common.  Each array
+     *  holds, for every diagonal, how far along _a the furthest path on it
+     *  has got. */
+    private int[] bisect(int lo1, int hi1, int lo2, int hi2) {
+        int n = hi1 - lo1, m = hi2 - lo2;
+        int maxD = (n + m + 1) / 2;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length], backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[maxD + 1] = 0;
+        backward[maxD + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int start1 = 0, end1 = 0, start2 = 0, end2 = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + start1; k <= d - end1; k += 2) {
+                int i = maxD + k;
+                int x = k == -d || (k != d && forward[i - 1] < forward[i + 1])
+                    ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && _a[lo1 + x] == _b[lo2 + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    end1 += 2;
+                } else if (y > m) {
+                    start1 += 2;
+                } else if (odd) {
+                    int j = maxD + delta - k;
+                    if (j >= 0 && j < length && backward[j] != -1
+                            && x >= n - backward[j]) {
+                        return new int[] { lo1 + x, lo2 + y };
+                    }
+                }
+            }
+            for (int k = -d + start2; k <= d - end2; k += 2) {
+                int j = maxD + k;
+                int x = k == -d
+                    || (k != d && backward[j - 1] < backward[j + 1])
+                    ? backward[j + 1] : backward[j - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                        && _a[hi1 - x - 1] == _b[hi2 - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[j] = x;
+                if (x > n) {
+                    end2 += 2;
+                } else if (y > m) {
+                    start2 += 2;
+                } else if (!odd) {
+                    int i = maxD + delta - k;
+                    if (i >= 0 && i < length && forward[i] != -1
+                            && forward[i] >= n - x) {
+                        return new int[] { lo1 + forward[i],
+                                           lo2 + forward[i] - i + maxD };
+                    }
+                }
+            }
+        }
+        return null;
     }
 
-    /** Pop an item from the work stack. */
-    private void pop() {
-        _todop -= 3;
-        _llsTop1 = _todo[_todop + 1]; _llsTop2 = _todo[_todop + 2];
-        _llsState = _todo[_todop];
+    /** Record a common subsequence of lines [LO1 .. HI1 - 1] of _a and
+     *  [LO2 .. HI2 - 1] of _b in _paired, built around runs of rarely
+     *  occurring lines. */
+    private void histogram(int lo1, int hi1, int lo2, int hi2) {
+        ArrayDeque<int[]> todo = new ArrayDeque<>();
+        todo.push(new int[] { lo1, hi1, lo2, hi2 });
+        while (!todo.isEmpty()) {
+            int[] r = todo.pop();
+            if (!trim(r)) {
+                continue;
+            }
+            int[] run = rarest(r[0], r[1], r[2], r[3]);
+            if (run == null) {
+                myers(r[0], r[1], r[2], r[3]);
+                continue;
+            }
+            for (int k = 0; k < run[2]; k += 1) {
+                _paired[run[0] + k] = run[1] + k;
+            }
+            todo.push(new int[] { run[0] + run[2], r[1],
+                                  run[1] + run[2], r[3] });
+            todo.push(new int[] { r[0], run[0], r[2], run[1] });
+        }
     }
 
-    /** Return true iff the work stack is empty. */
-    private boolean empty() {
-        return _todop <= 0;
+    /** Return the run { S1, S2, L } of L lines common to lines
+     *  [LO1 .. HI1 - 1] of _a, starting at S1, and [LO2 .. HI2 - 1] of
+     *  _b, starting at S2, whose rarest line occurs the fewest times in
+     *  that part of _a, preferring the longest such run, or null if every
+     *  common line there occurs more than MAX_OCCURRENCES times. */
+    private int[] rarest(int lo1, int hi1, int lo2, int hi2) {
+        Map<Integer, Integer> counts = new HashMap<>(),
+            firsts = new HashMap<>();
+        int[] next = new int[hi1 - lo1];
+        for (int k1 = hi1 - 1; k1 >= lo1; k1 -= 1) {
+            Integer later = firsts.put(_a[k1], k1);
+            next[k1 - lo1] = later == null ? -1 : later;
+            counts.merge(_a[k1], 1, Integer::sum);
+        }
+        int[] best = null;
+        int bestCount = MAX_OCCURRENCES;
+        for (int k2 = lo2; k2 < hi2;) {
+            int after = k2 + 1;
+            Integer count = counts.get(_b[k2]);
+            if (count != null && count <= bestCount) {
+                for (int k1 = firsts.get(_b[k2]); k1 >= 0;
+                     k1 = next[k1 - lo1]) {
+                    int s1 = k1, s2 = k2, e1 = k1 + 1, e2 = k2 + 1;
+                    int rarity = count;
+                    while (s1 > lo1 && s2 > lo2
+                            && _a[s1 - 1] == _b[s2 - 1]) {
+                        s1 -= 1;
+                        s2 -= 1;
+                        rarity = min(rarity, counts.get(_a[s1]));
+                    }
+                    while (e1 < hi1 && e2 < hi2 && _a[e1] == _b[e2]) {
+                        rarity = min(rarity, counts.get(_a[e1]));
+                        e1 += 1;
+                        e2 += 1;
+                    }
+                    after = Math.max(after, e2);
+                    if (best == null || rarity < bestCount
+                            || (rarity == bestCount && e1 - s1 > best[2])) {
+                        best = new int[] { s1, s2, e1 - s1 };
+                        bestCount = rarity;
+                    }
+                }
+            }
+            k2 = after;
+        }
+        return best;
     }
 
     /** The sequences being compared. */
     private List<String> _lines1, _lines2;
 
-    /** The memo table for longest common subsequence.  _lls[a][b] contains the
-     *  length of the longest common sequence of the prefixes of the current
-     *  data sequences of lengths a and b, or -1 if not calculated. */
-    private int[][] _lls;
+    /** The ids of the lines of the sequences being compared.  Equal lines
+     *  have equal ids. */
+    private int[] _ids1, _ids2;
+
+    /** The number of distinct lines in the sequences being compared. */
+    private int _distinct;
+
+    /** While a common subsequence is being found, the ids of the lines of
+     *  each sequence that also occur in the other. */
+    private int[] _a, _b;
+
+    /** While a common subsequence is being found, for each line of _a, the
+     *  position of the line of _b it is matched with, or -1. */
+    private int[] _paired;
+
+    /** The algorithm used to find the common subsequence. */
+    private Algorithm _algorithm = Algorithm.MYERS;
+
+    /** For each line of the first sequence, the position of the line of the
+     *  second that it is matched with in the common subsequence, or -1; or
+     *  null if the common subsequence has not been found. */
+    private int[] _match;
+
+    /** The number of lines in the common subsequence. */
+    private int _matched;
 
-    /** A stack structure used by lls. */
-    private int[] _todo;
-    /** Structure for the work queue used by lls. */
-    private int _todop, _llsState, _llsTop1, _llsTop2;
+    /** Lines occurring more often than this in the part of _a being
+     *  compared are not used to split it by the HISTOGRAM algorithm. */
+    private static final int MAX_OCCURRENCES = 64;
 
 }
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/** Three-way merges of sequences of lines.  Each side is compared with
+ *  the base by Diff, and the base is then walked in chunks: stable chunks,
+ *  runs of base lines that both sides keep in the same place, and between
+ *  them unstable chunks, where one side or both have changed something.
+ *  An unstable chunk changed by one side only, or changed the same way by
+ *  both, takes that change; only one that the two sides change differently
+ *  is a conflict, written between conflict markers with each side's
+ *  version of just that chunk.  The merge is written out chunk by chunk
+ *  as it is found.
+ *  @author Avery Bong
+ */
+class Diff3 {
+
+    /** Write to OUT the merge of the lines OURS and THEIRS, two versions of
+     *  BASE, each line keeping its line terminator.  @return true iff any
+     *  chunk conflicted. */
+    static boolean merge(List<String> base, List<String> ours,
+                         List<String> theirs, Writer out) throws IOException {
+        int[] toOurs = matches(base, ours), toTheirs = matches(base, theirs);
+        boolean conflict = false;
+        int o = 0, a = 0, b = 0;
+        while (o < base.size() || a < ours.size() || b < theirs.size()) {
+            int k = 0;
+            while (o + k < base.size() && toOurs[o + k] == a + k
+                   && toTheirs[o + k] == b + k) {
+                k += 1;
+            }
+            if (k > 0) {
+                write(out, base.subList(o, o + k));
+                o += k;
+                a += k;
+                b += k;
+                continue;
+            }
+            int next = o;
+            while (next < base.size()
+                   && (toOurs[next] < 0 || toTheirs[next] < 0)) {
+                next += 1;
+            }
+            int endA = next < base.size() ? toOurs[next] : ours.size(),
+                endB = next < base.size() ? toTheirs[next] : theirs.size();
+            conflict |= chunk(base.subList(o, next), ours.subList(a, endA),
+                    theirs.subList(b, endB), out);
+            o = next;
+            a = endA;
+            b = endB;
+        }
+        return conflict;
+    }
+
+    /** @return for each line of BASE, the position of the line of OTHER it
+     *  is matched with in their longest common subsequence, or -1. */
+    private static int[] matches(List<String> base, List<String> other) {
+        Diff diff = new Diff();
+        diff.setSequences(base, other);
+        int[] common = diff.commonSubsequence();
+        int[] res = new int[base.size()];
+        Arrays.fill(res, -1);
+        for (int k = 0; k < common.length; k += 3) {
+            for (int i = 0; i < common[k + 2]; i += 1) {
+                res[common[k] + i] = common[k + 1] + i;
+            }
+        }
+        return res;
+    }
+
+    /** Write to OUT the merge of the unstable chunk BASE, which is OURS on
+     *  one side and THEIRS on the other.  @return true iff it conflicts. */
+    private static boolean chunk(List<String> base, List<String> ours,
+                                 List<String> theirs, Writer out)
+            throws IOException {
+        if (ours.equals(base)) {
+            write(out, theirs);
+        } else if (theirs.equals(base) || theirs.equals(ours)) {
+            write(out, ours);
+        } else {
+            out.write(OURS);
+            writeLines(out, ours);
+            out.write(SEPARATOR);
+            writeLines(out, theirs);
+            out.write(THEIRS);
+            return true;
+        }
+        return false;
+    }
+
+    /** Write LINES to OUT as they are. */
+    private static void write(Writer out, List<String> lines)
+            throws IOException {
+        for (String line : lines) {
+            out.write(line);
+        }
+    }
+
+    /** Write LINES to OUT, ending the last with a newline if it has none,
+     *  so that a conflict marker after it starts a line. */
+    private static void writeLines(Writer out, List<String> lines)
+            throws IOException {
+        write(out, lines);
+        if (!lines.isEmpty() && !lines.get(lines.size() - 1).endsWith("\n")) {
+            out.write('\n');
+        }
+    }
+
+    /** Starts our side of a conflict. */
+    static final String OURS = "<<<<<<< HEAD\n";
+
+    /** Separates the two sides of a conflict. */
+    static final String SEPARATOR = "=======\n";
+
+    /** Ends their side of a conflict. */
+    static final String THEIRS = ">>>>>>>\n";
+}
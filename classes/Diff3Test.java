@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Diff3.
+ *  @author Avery Bong
+ */
+public class Diff3Test {
+
+    /** @return the text of the merge of OURS and THEIRS, two versions of
+     *  BASE, checking that it conflicts iff CONFLICT. */
+    private static String merge(String base, String ours, String theirs,
+                                boolean conflict) throws IOException {
+        StringWriter out = new StringWriter();
+        assertEquals(conflict, Diff3.merge(Diff.lines(base), Diff.lines(ours),
+                Diff.lines(theirs), out));
+        return out.toString();
+    }
+
+    /** @return the conflict between OURS and THEIRS as written in a
+     *  merge. */
+    private static String conflict(String ours, String theirs) {
+        return Diff3.OURS + ours + Diff3.SEPARATOR + theirs + Diff3.THEIRS;
+    }
+
+    @Test
+    public void unchangedTest() throws IOException {
+        String base = "a\nb\nc\n";
+        assertEquals(base, merge(base, base, base, false));
+        assertEquals("", merge("", "", "", false));
+    }
+
+    @Test
+    public void oneSideTest() throws IOException {
+        String base = "a\nb\nc\n", changed = "a\nB\nc\nd\n";
+        assertEquals(changed, merge(base, changed, base, false));
+        assertEquals(changed, merge(base, base, changed, false));
+    }
+
+    @Test
+    public void nonOverlappingTest() throws IOException {
+        String base = "1\n2\n3\n4\n5\n6\n7\n";
+        assertEquals("one\n2\n3\n4\n5\n6\nseven\n",
+                merge(base, "one\n2\n3\n4\n5\n6\n7\n",
+                        "1\n2\n3\n4\n5\n6\nseven\n", false));
+        assertEquals("0\n1\n2\n4\n5\n6\n7\n8\n",
+                merge(base, "0\n1\n2\n4\n5\n6\n7\n",
+                        "1\n2\n3\n4\n5\n6\n7\n8\n", false));
+    }
+
+    @Test
+    public void sameChangeTest() throws IOException {
+        String base = "a\nb\nc\nd\n", both = "a\nB\nc\nd\ne\n";
+        assertEquals(both, merge(base, both, both, false));
+        assertEquals("a\nc\nd\n", merge(base, "a\nc\nd\n", "a\nc\nd\n",
+                false));
+    }
+
+    @Test
+    public void overlappingTest() throws IOException {
+        String base = "1\n2\n3\n4\n5\n6\n7\n8\n9\n";
+        String ours = "1\n2\n3\nfour\n5\n6\n7\n8\nnine\n";
+        String theirs = "one\n2\n3\nFOUR\n5\n6\n7\n8\n9\n";
+        assertEquals("one\n2\n3\n" + conflict("four\n", "FOUR\n")
+                + "5\n6\n7\n8\nnine\n", merge(base, ours, theirs, true));
+        assertEquals("1\n2\n" + conflict("x\ny\n", "z\n") + "5\n",
+                merge("1\n2\n3\n4\n5\n", "1\n2\nx\ny\n5\n", "1\n2\nz\n5\n",
+                        true));
+        assertEquals("1\n" + conflict("2\n", "3\n") + "7\n",
+                merge("1\n7\n", "1\n2\n7\n", "1\n3\n7\n", true));
+    }
+
+    @Test
+    public void deleteModifyTest() throws IOException {
+        String base = "a\nb\nc\nd\n";
+        assertEquals("a\n" + conflict("", "B\n") + "c\nd\n",
+                merge(base, "a\nc\nd\n", "a\nB\nc\nd\n", true));
+        assertEquals("a\n" + conflict("B\n", "") + "c\nd\n",
+                merge(base, "a\nB\nc\nd\n", "a\nc\nd\n", true));
+        assertEquals("a\nc\n", merge(base, "a\nc\nd\n", "a\nb\nc\n", false));
+    }
+
+    @Test
+    public void noNewlineTest() throws IOException {
+        assertEquals("a\n" + conflict("x\n", "y\n"),
+                merge("a\nb", "a\nx", "a\ny", true));
+        assertEquals("a\nx", merge("a\nb", "a\nx", "a\nb", false));
+    }
+}
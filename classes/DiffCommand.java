@@ -0,0 +1,53 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Driver class for Diff.  With no commits, diff shows the changes in the
+ *  working files not yet staged; with --cached, the changes staged for
+ *  the next commit; and with two commits or branches, the changes from
+ *  the first to the second.  --histogram uses a histogram diff.
+ *  @author Avery Bong
+ */
+public class DiffCommand implements Command {
+
+    @Override
+    public int run(Git s, String[] command) throws IOException {
+        Diff.Algorithm algorithm = Diff.Algorithm.MYERS;
+        boolean cached = false;
+        List<String> commits = new ArrayList<>();
+        for (String arg : command) {
+            switch (arg) {
+            case "--histogram":
+                algorithm = Diff.Algorithm.HISTOGRAM;
+                break;
+            case "--cached":
+            case "--staged":
+                cached = true;
+                break;
+            default:
+                commits.add(arg);
+            }
+        }
+        if (!commits.isEmpty() && (cached || commits.size() != 2)) {
+            throw new GitletException("Incorrect # of args");
+        }
+        Writer out = Main.openStdout();
+        try {
+            if (cached) {
+                s.diffStaged(out, algorithm);
+            } else if (commits.isEmpty()) {
+                s.diffWorking(out, algorithm);
+            } else {
+                s.diffCommits(out, commits.get(0), commits.get(1),
+                        algorithm);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            /* The reader of the output has gone away. */
+        }
+        return 0;
+    }
+}
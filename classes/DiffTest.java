@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Diff's common subsequences and edits.
+ *  @author Avery Bong
+ */
+public class DiffTest {
+
+    /** @return the length of a longest common subsequence of A and B, by
+     *  the table Diff used to fill. */
+    private static int tableLcs(List<String> a, List<String> b) {
+        int[][] t = new int[a.size() + 1][b.size() + 1];
+        for (int i = 1; i <= a.size(); i += 1) {
+            for (int j = 1; j <= b.size(); j += 1) {
+                t[i][j] = a.get(i - 1).equals(b.get(j - 1))
+                    ? t[i - 1][j - 1] + 1
+                    : Math.max(t[i - 1][j], t[i][j - 1]);
+            }
+        }
+        return t[a.size()][b.size()];
+    }
+
+    /** @return a diff of A and B using ALGORITHM. */
+    private static Diff diff(List<String> a, List<String> b,
+                             Diff.Algorithm algorithm) {
+        Diff res = new Diff();
+        res.setAlgorithm(algorithm);
+        res.setSequences(a, b);
+        return res;
+    }
+
+    /** Check that the common subsequence of D is one: runs of equal lines
+     *  in increasing order in both sequences.  @return its length. */
+    private static int checkCommon(Diff d) {
+        int[] common = d.commonSubsequence();
+        assertEquals(0, common.length % 3);
+        int end1 = 0, end2 = 0, res = 0;
+        for (int k = 0; k < common.length; k += 3) {
+            assertTrue(common[k] >= end1 && common[k + 1] >= end2);
+            assertTrue(common[k + 2] > 0);
+            for (int i = 0; i < common[k + 2]; i += 1) {
+                assertEquals(d.get1(common[k] + i), d.get2(common[k + 1] + i));
+            }
+            end1 = common[k] + common[k + 2];
+            end2 = common[k + 1] + common[k + 2];
+            res += common[k + 2];
+        }
+        assertTrue(end1 <= d.sequence1().size()
+                   && end2 <= d.sequence2().size());
+        return res;
+    }
+
+    /** Check that the edits of D are in order, each removing or adding
+     *  something, and turn its first sequence into its second.  @return
+     *  the number of lines they leave alone. */
+    private static int checkDiffs(Diff d) {
+        int[] diffs = d.diffs();
+        assertEquals(0, diffs.length % 4);
+        List<String> result = new ArrayList<>();
+        int e1 = 0, e2 = 0, kept = 0;
+        for (int k = 0; k < diffs.length; k += 4) {
+            assertTrue(diffs[k] >= e1 && diffs[k + 2] >= e2);
+            assertTrue(diffs[k + 1] > 0 || diffs[k + 3] > 0);
+            assertEquals(diffs[k] - e1, diffs[k + 2] - e2);
+            result.addAll(d.sequence1().subList(e1, diffs[k]));
+            result.addAll(d.sequence2().subList(diffs[k + 2],
+                    diffs[k + 2] + diffs[k + 3]));
+            kept += diffs[k] - e1;
+            e1 = diffs[k] + diffs[k + 1];
+            e2 = diffs[k + 2] + diffs[k + 3];
+        }
+        assertEquals(d.sequence1().size() - e1, d.sequence2().size() - e2);
+        kept += d.sequence1().size() - e1;
+        result.addAll(d.sequence1().subList(e1, d.sequence1().size()));
+        assertEquals(d.sequence2(), result);
+        return kept;
+    }
+
+    /** @return the lines of TEXT, one per character. */
+    private static List<String> seq(String text) {
+        return Arrays.asList(text.split(""));
+    }
+
+    @Test
+    public void emptyTest() {
+        List<String> none = Collections.emptyList(), some = seq("abc");
+        for (Diff.Algorithm alg : Diff.Algorithm.values()) {
+            Diff d = diff(none, none, alg);
+            assertArrayEquals(new int[0], d.commonSubsequence());
+            assertArrayEquals(new int[0], d.diffs());
+            assertEquals(0, d.lls());
+            assertTrue(d.sequencesEqual());
+            d = diff(none, some, alg);
+            assertArrayEquals(new int[0], d.commonSubsequence());
+            assertArrayEquals(new int[] { 0, 0, 0, 3 }, d.diffs());
+            d = diff(some, none, alg);
+            assertArrayEquals(new int[] { 0, 3, 0, 0 }, d.diffs());
+            assertFalse(d.sequencesEqual());
+        }
+    }
+
+    @Test
+    public void identicalTest() {
+        List<String> a = seq("abcabbacbbcaaz");
+        for (Diff.Algorithm alg : Diff.Algorithm.values()) {
+            Diff d = diff(a, new ArrayList<>(a), alg);
+            assertArrayEquals(new int[] { 0, 0, a.size() },
+                    d.commonSubsequence());
+            assertArrayEquals(new int[0], d.diffs());
+            assertEquals(a.size(), d.lls());
+            assertTrue(d.sequencesEqual());
+        }
+    }
+
+    @Test
+    public void disjointTest() {
+        List<String> a = seq("abcab"), b = seq("xyzzyxw");
+        for (Diff.Algorithm alg : Diff.Algorithm.values()) {
+            Diff d = diff(a, b, alg);
+            assertArrayEquals(new int[0], d.commonSubsequence());
+            assertArrayEquals(new int[] { 0, 5, 0, 7 }, d.diffs());
+            assertEquals(0, d.lls());
+            assertFalse(d.sequencesEqual());
+        }
+    }
+
+    @Test
+    public void editTest() {
+        Diff d = diff(seq("abcdefg"), seq("abXdeYYg"), Diff.Algorithm.MYERS);
+        assertArrayEquals(new int[] { 0, 0, 2, 3, 3, 2, 6, 7, 1 },
+                d.commonSubsequence());
+        assertArrayEquals(new int[] { 2, 1, 2, 1, 5, 1, 5, 2 }, d.diffs());
+    }
+
+    @Test
+    public void randomTest() {
+        Random r = new Random(21);
+        for (int trial = 0; trial < 500; trial += 1) {
+            String alphabet = "abcdefghij".substring(0, 2 + r.nextInt(8));
+            List<String> a = randomLines(r, alphabet, r.nextInt(40)),
+                b = mutate(r, alphabet, a);
+            int lcs = tableLcs(a, b);
+            Diff myers = diff(a, b, Diff.Algorithm.MYERS);
+            assertEquals(lcs, myers.lls());
+            assertEquals(lcs, checkCommon(myers));
+            assertEquals(lcs, checkDiffs(myers));
+            int k1 = r.nextInt(a.size() + 1), k2 = r.nextInt(b.size() + 1);
+            assertEquals(tableLcs(a.subList(0, k1), b.subList(0, k2)),
+                    myers.lls(k1, k2));
+            Diff histogram = diff(a, b, Diff.Algorithm.HISTOGRAM);
+            int found = checkCommon(histogram);
+            assertTrue(found <= lcs);
+            assertEquals(found, checkDiffs(histogram));
+            assertEquals(lcs, histogram.lls());
+        }
+    }
+
+    /** @return N lines drawn at random by R from ALPHABET. */
+    private static List<String> randomLines(Random r, String alphabet,
+                                            int n) {
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            res.add(String.valueOf(alphabet.charAt(r.nextInt(
+                    alphabet.length()))));
+        }
+        return res;
+    }
+
+    /** @return LINES with some lines removed, changed or added at random
+     *  by R, new lines coming from ALPHABET. */
+    private static List<String> mutate(Random r, String alphabet,
+                                       List<String> lines) {
+        if (r.nextInt(5) == 0) {
+            return randomLines(r, alphabet, r.nextInt(40));
+        }
+        List<String> res = new ArrayList<>();
+        for (String line : lines) {
+            int dice = r.nextInt(10);
+            if (dice == 0) {
+                continue;
+            } else if (dice == 1) {
+                res.addAll(randomLines(r, alphabet, 1 + r.nextInt(3)));
+            } else {
+                res.add(line);
+            }
+        }
+        return res;
+    }
+}
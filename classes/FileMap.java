@@ -0,0 +1,341 @@
+package gitlet;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** An immutable map of file paths to blob ids, held as a hash array mapped
+ *  trie.  Each node of the trie covers five bits of the hashes of the
+ *  paths under it, and holds a bitmap of which of its 32 slots are used
+ *  followed by just those slots, each a path and its blob id or a child
+ *  node.  Changing a path copies only the nodes on the way to it, a few
+ *  small arrays even for large maps, and shares every other node with the
+ *  map it was made from, so the file maps of a commit and its parent take
+ *  little more memory than one of them.  Iteration is in no particular
+ *  order.
+ *  @author Avery Bong
+ */
+class FileMap extends AbstractMap<String, String> {
+
+    /** The map with trie ROOT, which may be null, holding SIZE paths. */
+    private FileMap(Trie root, int size) {
+        _root = root;
+        _size = size;
+    }
+
+    /** @return a map holding the entries of FILES. */
+    static FileMap of(Map<String, String> files) {
+        return files instanceof FileMap ? (FileMap) files
+            : EMPTY.withAll(files);
+    }
+
+    /** @return this map with PATH mapped to BLOB, or without PATH if BLOB
+     *  is null. */
+    FileMap with(String path, String blob) {
+        int[] delta = { 0 };
+        Trie root = blob == null ? remove(_root, 0, hash(path), path, delta)
+            : put(_root, 0, hash(path), path, blob, delta);
+        return root == _root ? this : new FileMap(root, _size + delta[0]);
+    }
+
+    /** @return this map with the changes CHANGES made to it, each a path
+     *  mapped to its new blob id, or to null to remove it. */
+    FileMap withAll(Map<String, String> changes) {
+        Trie root = _root;
+        int[] delta = { 0 };
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            root = e.getValue() == null
+                ? remove(root, 0, hash(path), path, delta)
+                : put(root, 0, hash(path), path, e.getValue(), delta);
+        }
+        return root == _root ? this : new FileMap(root, _size + delta[0]);
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int hash = hash((String) key);
+        Trie t = _root;
+        for (int shift = 0; t != null; shift += BITS) {
+            int i;
+            if (shift >= Integer.SIZE) {
+                i = t.find((String) key);
+                return i < 0 ? null : (String) t._slots[i + 1];
+            }
+            int bit = bit(hash, shift);
+            if ((t._bitmap & bit) == 0) {
+                return null;
+            }
+            i = t.index(bit);
+            Object k = t._slots[i];
+            if (k != null) {
+                return k.equals(key) ? (String) t._slots[i + 1] : null;
+            }
+            t = (Trie) t._slots[i + 1];
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Entries(_root);
+            }
+
+            @Override
+            public int size() {
+                return _size;
+            }
+        };
+    }
+
+    /** A node of the trie.  Below the last five bits of the hash, where
+     *  only paths with equal hashes meet, a node has no bitmap and its
+     *  slots are simply all the paths with that hash. */
+    private static final class Trie {
+
+        /** A node with the slots SLOTS used according to BITMAP. */
+        Trie(int bitmap, Object[] slots) {
+            _bitmap = bitmap;
+            _slots = slots;
+        }
+
+        /** @return the index in _slots of the slot for BIT. */
+        int index(int bit) {
+            return 2 * Integer.bitCount(_bitmap & (bit - 1));
+        }
+
+        /** @return the index in _slots of PATH in a node of paths with
+         *  equal hashes, or -1. */
+        int find(String path) {
+            for (int i = 0; i < _slots.length; i += 2) {
+                if (_slots[i].equals(path)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** @return a copy of this node with the slot pair at I set to K
+         *  and V. */
+        Trie set(int i, Object k, Object v) {
+            Object[] slots = _slots.clone();
+            slots[i] = k;
+            slots[i + 1] = v;
+            return new Trie(_bitmap, slots);
+        }
+
+        /** @return a copy of this node with K and V inserted as a slot
+         *  pair at I and BIT set. */
+        Trie insert(int bit, int i, Object k, Object v) {
+            Object[] slots = new Object[_slots.length + 2];
+            System.arraycopy(_slots, 0, slots, 0, i);
+            slots[i] = k;
+            slots[i + 1] = v;
+            System.arraycopy(_slots, i, slots, i + 2, _slots.length - i);
+            return new Trie(_bitmap | bit, slots);
+        }
+
+        /** @return a copy of this node without the slot pair at I and with
+         *  BIT cleared, or null if that leaves it empty. */
+        Trie delete(int bit, int i) {
+            if (_slots.length == 2) {
+                return null;
+            }
+            Object[] slots = new Object[_slots.length - 2];
+            System.arraycopy(_slots, 0, slots, 0, i);
+            System.arraycopy(_slots, i + 2, slots, i, slots.length - i);
+            return new Trie(_bitmap & ~bit, slots);
+        }
+
+        /** @return true iff this node holds a single path and no child. */
+        boolean single() {
+            return _slots.length == 2 && _slots[0] != null;
+        }
+
+        /** Which of the 32 slots are used. */
+        private final int _bitmap;
+
+        /** Each used slot as a pair: a path and its blob id, or null and a
+         *  child node. */
+        private final Object[] _slots;
+    }
+
+    /** @return T, a node at SHIFT bits into the hashes, which may be null,
+     *  with PATH, whose hash is HASH, mapped to BLOB.  Adds 1 to DELTA[0]
+     *  if PATH is new.  T itself is returned if nothing changes. */
+    private static Trie put(Trie t, int shift, int hash, String path,
+                            String blob, int[] delta) {
+        if (t == null) {
+            t = new Trie(0, new Object[0]);
+        }
+        if (shift >= Integer.SIZE) {
+            int i = t.find(path);
+            if (i >= 0) {
+                return blob.equals(t._slots[i + 1]) ? t : t.set(i, path, blob);
+            }
+            delta[0] += 1;
+            return t.insert(0, t._slots.length, path, blob);
+        }
+        int bit = bit(hash, shift), i = t.index(bit);
+        if ((t._bitmap & bit) == 0) {
+            delta[0] += 1;
+            return t.insert(bit, i, path, blob);
+        }
+        Object k = t._slots[i];
+        if (k == null) {
+            Trie child = (Trie) t._slots[i + 1],
+                next = put(child, shift + BITS, hash, path, blob, delta);
+            return next == child ? t : t.set(i, null, next);
+        } else if (k.equals(path)) {
+            return blob.equals(t._slots[i + 1]) ? t : t.set(i, path, blob);
+        }
+        String other = (String) k;
+        Trie child = put(null, shift + BITS, hash(other), other,
+                (String) t._slots[i + 1], new int[1]);
+        child = put(child, shift + BITS, hash, path, blob, delta);
+        return t.set(i, null, child);
+    }
+
+    /** @return T, a node at SHIFT bits into the hashes, which may be null,
+     *  without PATH, whose hash is HASH, or null if that leaves it empty.
+     *  Subtracts 1 from DELTA[0] if PATH was there.  T itself is returned
+     *  if nothing changes. */
+    private static Trie remove(Trie t, int shift, int hash, String path,
+                               int[] delta) {
+        if (t == null) {
+            return null;
+        } else if (shift >= Integer.SIZE) {
+            int i = t.find(path);
+            if (i < 0) {
+                return t;
+            }
+            delta[0] -= 1;
+            return t.delete(0, i);
+        }
+        int bit = bit(hash, shift), i = t.index(bit);
+        if ((t._bitmap & bit) == 0) {
+            return t;
+        }
+        Object k = t._slots[i];
+        if (k == null) {
+            Trie child = (Trie) t._slots[i + 1],
+                next = remove(child, shift + BITS, hash, path, delta);
+            if (next == child) {
+                return t;
+            } else if (next == null) {
+                return t.delete(bit, i);
+            } else if (next.single()) {
+                return t.set(i, next._slots[0], next._slots[1]);
+            }
+            return t.set(i, null, next);
+        } else if (k.equals(path)) {
+            delta[0] -= 1;
+            return t.delete(bit, i);
+        }
+        return t;
+    }
+
+    /** @return the hash of PATH, with its high bits folded into the low
+     *  bits used first. */
+    private static int hash(String path) {
+        int h = path.hashCode();
+        return h ^ (h >>> (Integer.SIZE / 2));
+    }
+
+    /** @return the bit of the slot for HASH in a node SHIFT bits into the
+     *  hashes. */
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & (BRANCHES - 1));
+    }
+
+    /** Walks the entries of a trie, depth first. */
+    private static class Entries
+            implements Iterator<Map.Entry<String, String>> {
+
+        /** Entries of the trie ROOT, which may be null. */
+        Entries(Trie root) {
+            if (root != null) {
+                _nodes.push(root);
+                _next.push(0);
+            }
+            advance();
+        }
+
+        /** Move to the next path, or empty the stacks at the end. */
+        private void advance() {
+            while (!_nodes.isEmpty()) {
+                Trie t = _nodes.peek();
+                int i = _next.pop();
+                if (i >= t._slots.length) {
+                    _nodes.pop();
+                    continue;
+                }
+                _next.push(i + 2);
+                if (t._slots[i] != null) {
+                    return;
+                }
+                _nodes.push((Trie) t._slots[i + 1]);
+                _next.push(0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !_nodes.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Trie t = _nodes.peek();
+            int i = _next.peek() - 2;
+            Map.Entry<String, String> res = new SimpleImmutableEntry<>(
+                    (String) t._slots[i], (String) t._slots[i + 1]);
+            advance();
+            return res;
+        }
+
+        /** The nodes being walked, innermost first. */
+        private final ArrayDeque<Trie> _nodes = new ArrayDeque<>();
+
+        /** The index of the next slot pair to visit in each of _nodes. */
+        private final ArrayDeque<Integer> _next = new ArrayDeque<>();
+    }
+
+    /** The empty map. */
+    static final FileMap EMPTY = new FileMap(null, 0);
+
+    /** Bits of the hash used by each level of the trie. */
+    private static final int BITS = 5;
+
+    /** Slots in a node. */
+    private static final int BRANCHES = 1 << BITS;
+
+    /** The top of the trie, or null if empty. */
+    private final Trie _root;
+
+    /** The number of paths in this map. */
+    private final int _size;
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of FileMap.
+ *  @author Avery Bong
+ */
+public class FileMapTest {
+
+    /** @return a map of the N paths "dir/fileK" to blob "blobK". */
+    private static Map<String, String> files(int n) {
+        Map<String, String> res = new HashMap<>();
+        for (int k = 0; k < n; k += 1) {
+            res.put("dir/file" + k, "blob" + k);
+        }
+        return res;
+    }
+
+    /** Check that M has exactly the entries of EXPECTED, through get,
+     *  containsKey, size and iteration. */
+    private static void check(Map<String, String> expected, FileMap m) {
+        assertEquals(expected.size(), m.size());
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            assertEquals(e.getValue(), m.get(e.getKey()));
+            assertTrue(m.containsKey(e.getKey()));
+        }
+        assertEquals(expected, new HashMap<>(m));
+    }
+
+    @Test
+    public void emptyTest() {
+        assertEquals(0, FileMap.EMPTY.size());
+        assertNull(FileMap.EMPTY.get("a"));
+        assertFalse(FileMap.EMPTY.entrySet().iterator().hasNext());
+        assertSame(FileMap.EMPTY, FileMap.EMPTY.with("a", null));
+    }
+
+    @Test
+    public void withTest() {
+        Map<String, String> expected = files(1000);
+        FileMap m = FileMap.EMPTY;
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            m = m.with(e.getKey(), e.getValue());
+        }
+        check(expected, m);
+        assertNull(m.get("dir/file1000"));
+        assertNull(m.get(null));
+        assertSame(m, m.with("dir/file3", "blob3"));
+        FileMap changed = m.with("dir/file3", "new");
+        expected.put("dir/file3", "new");
+        check(expected, changed);
+    }
+
+    @Test
+    public void withAllTest() {
+        Map<String, String> expected = files(500);
+        FileMap m = FileMap.of(expected);
+        check(expected, m);
+        assertSame(m, FileMap.of(m));
+        Map<String, String> changes = new HashMap<>();
+        for (int k = 0; k < 600; k += 3) {
+            changes.put("dir/file" + k, k % 2 == 0 ? null : "v" + k);
+        }
+        changes.put("other", "x");
+        FileMap after = m.withAll(changes);
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                expected.remove(e.getKey());
+            } else {
+                expected.put(e.getKey(), e.getValue());
+            }
+        }
+        check(expected, after);
+        assertSame(m, m.withAll(new HashMap<>()));
+    }
+
+    @Test
+    public void removeTest() {
+        Map<String, String> expected = files(300);
+        FileMap m = FileMap.of(expected);
+        assertSame(m, m.with("absent", null));
+        List<String> paths = new ArrayList<>(expected.keySet());
+        for (String p : paths) {
+            m = m.with(p, null);
+            expected.remove(p);
+            assertEquals(expected.size(), m.size());
+            assertNull(m.get(p));
+        }
+        check(expected, m);
+        assertFalse(m.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void collisionTest() {
+        String[] same = { "AaAa", "AaBB", "BBAa", "BBBB" };
+        assertEquals(same[0].hashCode(), same[3].hashCode());
+        Map<String, String> expected = new HashMap<>();
+        FileMap m = FileMap.EMPTY;
+        for (String p : same) {
+            m = m.with(p, p + "!");
+            expected.put(p, p + "!");
+        }
+        m = m.with("AaAa", "changed");
+        expected.put("AaAa", "changed");
+        check(expected, m);
+        assertNull(m.get("AaAb"));
+        FileMap fewer = m.with("AaBB", null).with("BBAa", null);
+        expected.remove("AaBB");
+        expected.remove("BBAa");
+        check(expected, fewer);
+        fewer = fewer.with("AaAa", null);
+        expected.remove("AaAa");
+        check(expected, fewer);
+        check(expected, fewer.with("AaBB", null));
+    }
+
+    @Test
+    public void parentUnchangedTest() {
+        Map<String, String> expected = files(200);
+        FileMap parent = FileMap.of(expected);
+        FileMap child = parent.with("dir/file7", "new")
+            .with("dir/file8", null).with("added", "x");
+        check(expected, parent);
+        assertEquals("new", child.get("dir/file7"));
+        assertNull(child.get("dir/file8"));
+        assertEquals(200, child.size());
+        FileMap other = parent.withAll(files(400));
+        check(expected, parent);
+        assertEquals(400, other.size());
+    }
+
+    @Test
+    public void randomTest() {
+        Random r = new Random(19);
+        Map<String, String> expected = new HashMap<>();
+        FileMap m = FileMap.EMPTY;
+        for (int i = 0; i < 20000; i += 1) {
+            String path = "f" + r.nextInt(2000);
+            String blob = r.nextInt(3) == 0 ? null : "b" + r.nextInt(5);
+            FileMap before = m;
+            Map<String, String> old =
+                i % 1000 == 0 ? new HashMap<>(expected) : null;
+            m = m.with(path, blob);
+            if (blob == null) {
+                expected.remove(path);
+            } else {
+                expected.put(path, blob);
+            }
+            assertEquals(expected.get(path), m.get(path));
+            assertEquals(expected.size(), m.size());
+            if (old != null) {
+                check(old, before);
+                check(expected, m);
+            }
+        }
+        check(expected, m);
+    }
+}
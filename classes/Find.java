@@ -10,8 +10,14 @@ import java.util.stream.Collectors;
 public class Find implements Command {
     @Override
     public int run(Git s, String[] command) throws IOException {
-        String message = command[0];
-        List<Git.Node> nodes = s.findNodesWithMessage(message);
+        List<Git.Node> nodes;
+        if (command.length == 2 && command[0].equals("--grep")) {
+            nodes = s.grepNodes(command[1]);
+        } else if (command.length == 1) {
+            nodes = s.findNodesWithMessage(command[0]);
+        } else {
+            throw new GitletException("Incorrect # of args");
+        }
         if (nodes.size() == 0) {
             Main.error("Found no commit with that message.");
         }
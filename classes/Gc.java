@@ -0,0 +1,21 @@
+package gitlet;
+
+import java.io.IOException;
+
+/** Driver class for Gc.
+ *  @author Avery Bong
+ */
+public class Gc implements Command {
+
+    @Override
+    public int run(Git s, String[] command) throws IOException {
+        if (command.length == 0) {
+            s.gc();
+        } else if (command.length == 1 && command[0].equals("--auto")) {
+            s.autoGc();
+        } else {
+            throw new GitletException("Incorrect # of args");
+        }
+        return 0;
+    }
+}
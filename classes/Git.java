@@ -1,21 +1,36 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.List;
-import java.util.Arrays;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.PriorityQueue;
 
 
 /** Core class for Gitlet.
@@ -23,80 +38,386 @@ import java.util.Comparator;
  */
 public class Git implements Serializable {
 
-    public Git() {
-        _currentBranch = "master";
-        _nodes = new HashMap<>();
+    public Git(File storage) {
+        this(storage, "master");
+        makeCommit(_currentBranch, "initial commit",
+                INITIAL_COMMIT_TIME, false);
+    }
+
+    /** A system stored in STORAGE with no commits or branches yet, whose
+     *  active branch is CURRENT. */
+    Git(File storage, String current) {
+        _currentBranch = current;
         _branches = new HashMap<>();
-        _stage = new HashMap<>();
-        _removal = new HashMap<>();
         _remotes = new HashMap<>();
         _conflicted = new ArrayList<>();
-        makeCommit(_currentBranch, "initial commit",
-                INITIAL_COMMIT_TIME, false);
+        attach(storage);
     }
 
-    /** Stage the file F. */
-    public void stage(File f) {
-        File backup = Main.backup(f);
-        Node latest = _branches.get(currentBranch());
-        if (_removal.containsKey(f.getName())
-                && branches().get(currentBranch())
-                ._files.containsValue(backup)) {
-            _removal.remove(f.getName());
-            _stage.put(f.getName(), null);
-        } else if (latest._files.containsKey(f.getName())
-                && latest._files.get(f.getName()).equals(backup)) {
-            return;
-        } else if (!_stage.containsKey(f.getName())
-                && !backup.equals(_stage.getOrDefault(f.getName(), null))) {
-            _stage.put(f.getName(), backup);
+    /** Bind this system to the .gitlet folder STORAGE, from which its
+     *  commits are loaded on demand. */
+    public void attach(File storage) {
+        _storage = storage;
+        _loaded = new HashMap<>();
+        _commitIndex = null;
+        _messageIndex = null;
+        _commitGraph = null;
+        _store = null;
+        Utils.join(storage, COMMITS).mkdir();
+    }
+
+    /** @return a copy of this system, with its own branches and remotes,
+     *  to which later changes to this one can be undone by using the copy
+     *  instead, after calling its restore.  The staging area is shared
+     *  rather than copied, and records the entries changed from now on. */
+    public Git checkpoint() {
+        Git res = Utils.deserialize(Utils.serialize(this), Git.class);
+        res.attach(_storage);
+        res._index = _index;
+        if (_index != null) {
+            _index.mark();
+        }
+        return res;
+    }
+
+    /** Undo the changes made to the staging area since this checkpoint
+     *  was taken. */
+    public void restore() {
+        if (_index != null) {
+            _index.rollback();
+        }
+    }
+
+    /** @return the commit with the full id HASH, reading it from disk the
+     *  first time it is asked for, or null if there is no such commit. */
+    public Node node(String hash) {
+        Node n = _loaded.get(hash);
+        if (n == null) {
+            File loc = Utils.join(_storage, COMMITS, hash);
+            if (!loc.isFile()) {
+                return null;
+            }
+            n = Utils.readObject(loc, Node.class);
+            _loaded.put(hash, n);
         }
+        return n;
     }
 
-    /** Remove FILENAME. */
+    /** @return the commit with the full id HASH like node, but without
+     *  keeping it in memory afterwards, for walks over many commits. */
+    private Node read(String hash) {
+        Node n = _loaded.get(hash);
+        return n != null ? n
+            : Utils.readObject(Utils.join(_storage, COMMITS, hash), Node.class);
+    }
+
+    /** Write the new commit N to its own object file. */
+    private void writeNode(Node n) {
+        File loc = Utils.join(_storage, COMMITS, n._hash);
+        _loaded.put(n._hash, n);
+        if (!loc.exists()) {
+            Utils.writeObject(loc, n);
+            indexCommits(List.of(n._hash));
+        }
+    }
+
+    /** Add the newly stored commits with ids IDS to the commit and message
+     *  indexes. */
+    public void indexCommits(List<String> ids) {
+        commitIndex().add(ids);
+        graphCommits(ids);
+        messageIndex().add(messages(ids));
+    }
+
+    /** @return the index of commit ids, opening it the first time. */
+    public CommitIndex commitIndex() {
+        if (_commitIndex == null) {
+            _commitIndex = new CommitIndex(_storage);
+        }
+        return _commitIndex;
+    }
+
+    /** @return the commit graph, opening it the first time. */
+    public CommitGraph commitGraph() {
+        if (_commitGraph == null) {
+            _commitGraph = new CommitGraph(_storage);
+        }
+        return _commitGraph;
+    }
+
+    /** Rebuild the commit index, message index and commit graph from the
+     *  stored commits with ids COMMITS, which are all there are.  Their
+     *  positions in the graph change, so the record of which were packed
+     *  is dropped. */
+    void reindex(Collection<String> commits) {
+        commitIndex().rebuild(commits);
+        reindexMessages(commits);
+        commitGraph().clear();
+        graphCommits(commits);
+        Utils.join(_storage, PACKED).delete();
+    }
+
+    /** Add the commits with ids IDS, and any of their ancestors it lacks,
+     *  to the commit graph, parents first. */
+    private void graphCommits(Collection<String> ids) {
+        CommitGraph graph = commitGraph();
+        List<CommitGraph.Entry> order = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        for (String id : ids) {
+            todo.push(id);
+            while (!todo.isEmpty()) {
+                String c = todo.peek();
+                if (done.contains(c)
+                        || graph.position(c) != CommitGraph.NONE) {
+                    todo.pop();
+                    continue;
+                }
+                Node n = node(c);
+                boolean ready = true;
+                for (String p : n._parents) {
+                    if (!done.contains(p)
+                            && graph.position(p) == CommitGraph.NONE) {
+                        todo.push(p);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    todo.pop();
+                    done.add(c);
+                    order.add(new CommitGraph.Entry(c,
+                            nanos(n._commitTime), n._parents));
+                }
+            }
+        }
+        graph.add(order);
+    }
+
+    /** @return TIME in nanoseconds since the epoch. */
+    private static long nanos(ZonedDateTime time) {
+        return time.toEpochSecond() * NANOS + time.getNano();
+    }
+
+    /** @return true iff the commit with id ANC is an ancestor of the
+     *  commit with id DESC other than DESC itself. */
+    public boolean isAncestor(String anc, String desc) {
+        CommitGraph graph = commitGraph();
+        int a = graph.position(anc), d = graph.position(desc);
+        return a != CommitGraph.NONE && d != CommitGraph.NONE
+                && graph.isAncestor(a, d);
+    }
+
+    /** @return the index of commit messages. */
+    public MessageIndex messageIndex() {
+        if (_messageIndex == null) {
+            _messageIndex = new MessageIndex(_storage);
+        }
+        return _messageIndex;
+    }
+
+    /** Rebuild the message index from the commits with ids IDS. */
+    private void reindexMessages(Collection<String> ids) {
+        messageIndex().clear();
+        messageIndex().add(messages(ids));
+    }
+
+    /** @return the ids IDS of stored commits mapped to their messages, in
+     *  the same order. */
+    private Map<String, String> messages(Collection<String> ids) {
+        Map<String, String> res = new LinkedHashMap<>();
+        for (String id : ids) {
+            res.put(id, read(id)._message);
+        }
+        return res;
+    }
+
+    /** @return the store of this system's blobs and trees. */
+    public Store store() {
+        if (_storage.equals(Main.getStorageFolder())) {
+            return Main.getStore();
+        } else if (_store == null) {
+            _store = new Store(_storage);
+        }
+        return _store;
+    }
+
+    /** @return the files of the commit N as paths mapped to blob ids.
+     *  The first time, they are made from those of its first parent if
+     *  that is in memory, sharing all but the changed paths with it, and
+     *  otherwise read from its trees. */
+    public FileMap files(Node n) {
+        if (n._flat == null) {
+            Node parent = n._parents.isEmpty() ? null
+                : _loaded.get(n._parents.get(0));
+            if (parent != null && parent._flat != null) {
+                n._flat = parent._flat.withAll(
+                    Tree.changes(store(), tree(parent), n._tree));
+            } else {
+                n._flat = FileMap.of(Tree.files(store(), n._tree));
+            }
+        }
+        return n._flat;
+    }
+
+    /** @return the id of the top tree of the commit N. */
+    public String tree(Node n) {
+        return n._tree;
+    }
+
+    /** @return the files of the commit N that differ from those of its
+     *  first parent, or all of its files if it has none, mapped to their
+     *  blob ids, or to null for files it deletes. */
+    private Map<String, String> changes(Node n) {
+        String parent = n._parents.isEmpty() ? null
+            : tree(node(n._parents.get(0)));
+        return Tree.changes(store(), parent, tree(n));
+    }
+
+    /** @return the ids of every commit stored in this system. */
+    public List<String> commitIds() {
+        return commitIndex().ids();
+    }
+
+    /** @return the commit at the head of BRANCH, or null. */
+    public Node branchHead(String branch) {
+        String hash = _branches.get(branch);
+        return hash == null ? null : node(hash);
+    }
+
+    /** @return the commit at the head of the current branch. */
+    public Node head() {
+        return branchHead(_currentBranch);
+    }
+
+    /** @return the parents of N, in order. */
+    public List<Node> parents(Node n) {
+        List<Node> res = new ArrayList<>();
+        for (String p : n._parents) {
+            res.add(node(p));
+        }
+        return res;
+    }
+
+    /** @return the staging area, reading it the first time it is used. */
+    public Index index() {
+        if (_index == null) {
+            _index = Index.read(Utils.join(_storage, INDEX));
+        }
+        return _index;
+    }
+
+    /** Write the staging area back to its file if it was used. */
+    public void saveIndex() {
+        if (_index != null) {
+            _index.write(Utils.join(_storage, INDEX));
+        }
+    }
+
+    /** Make the staging area match the files of the commit N. */
+    public void resetIndex(Node n) {
+        index().reset(files(n));
+    }
+
+    /** @return the files staged for addition mapped to their blob ids,
+     *  that is, those whose staged blob is not the one in the current
+     *  commit. */
+    public Map<String, String> stagedFiles() {
+        Map<String, String> committed = files(head());
+        Map<String, String> res = index().files();
+        res.entrySet().removeIf(e -> e.getValue()
+                .equals(committed.get(e.getKey())));
+        return res;
+    }
+
+    /** @return the files in the current commit staged for removal. */
+    public List<String> removedFiles() {
+        List<String> res = new ArrayList<>();
+        for (String name : files(head()).keySet()) {
+            if (!index().contains(name)) {
+                res.add(name);
+            }
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    /** @return true iff anything is staged for addition or removal. */
+    public boolean hasStagedChanges() {
+        return !stagedFiles().isEmpty() || !removedFiles().isEmpty();
+    }
+
+    /** Add the files FILES for staging.  Files whose stat shows them
+     *  unchanged since they were staged are skipped, and the rest are
+     *  backed up in parallel. */
+    public void stage(List<File> files) throws IOException {
+        Index index = index();
+        List<long[]> stats = Parallel.map(files, Index::stat);
+        List<File> changed = new ArrayList<>();
+        for (int i = 0; i < files.size(); i += 1) {
+            if (!index.unchanged(files.get(i), stats.get(i))) {
+                changed.add(files.get(i));
+            }
+        }
+        List<String> blobs = Parallel.map(changed, Main::backup);
+        for (int i = 0; i < changed.size(); i += 1) {
+            index.put(changed.get(i), blobs.get(i));
+        }
+    }
+
+    /** Remove FILENAME, a path from the top of the working directory. */
     public void remove(String fileName) {
-        boolean inCommit = _branches.get(_currentBranch)
-                ._files.containsKey(fileName);
+        boolean inCommit = files(head()).containsKey(fileName);
         File file = Utils.join(Main.getCwd(), fileName);
         if (inCommit) {
-            file.delete();
-        }
-        if (_stage.containsKey(fileName)) {
-            _stage.remove(fileName);
-        } else {
-            _removal.put(fileName, null);
+            Main.deleteFile(file);
         }
+        index().remove(fileName);
     }
 
     /** Make a new commit at BRANCH, with the MESSAGE,
-     * given the time DATE and a boolean HASPARENT. */
+     * given the time DATE and a boolean HASPARENT.  Only the files staged
+     * for addition or removal are looked at; the rest of its files and
+     * trees are shared with the current commit. */
     public void makeCommit(String branch, String message,
                            ZonedDateTime date, boolean hasParent) {
-        Node newCommit = new Node(message, date, hasParent);
-        _branches.put(_currentBranch, newCommit);
-        _nodes.put(newCommit._hash, newCommit);
-        _stage.clear();
-        _removal.clear();
-        for (Node n : newCommit._pred) {
-            n._next.add(newCommit);
+        Map<String, String> changes = new HashMap<>();
+        List<String> parents = new ArrayList<>();
+        FileMap files = FileMap.EMPTY;
+        String tree = null;
+        if (hasParent) {
+            parents.add(head()._hash);
+            files = files(head());
+            tree = tree(head());
+            changes.putAll(stagedFiles());
+            for (String name : removedFiles()) {
+                changes.put(name, null);
+            }
         }
+        Node newCommit = new Node(message, date, parents,
+                Tree.update(store(), tree, changes), files.withAll(changes));
+        writeNode(newCommit);
+        _branches.put(_currentBranch, newCommit._hash);
     }
 
     /** Make a merge commit merging nodes N1 and N2
-     * from the branch given by NAME, and with the
-     * files changed specified by ADD and REM. */
-    public void mergeCommit(Node n1, Node n2, String name, Map<String,
-            File> add, Map<String, File> rem) {
+     * from the branch given by NAME, with the files of N1 changed as
+     * CHANGES says: each path mapped to its new blob id, or to null if
+     * it is removed. */
+    public void mergeCommit(Node n1, Node n2, String name,
+                            Map<String, String> changes) {
         String message = "Merged " + name + " into " + currentBranch() + ".";
-        Node newCommit = new Node(message, ZonedDateTime.now(), n2, add, rem);
-        _branches.replace(currentBranch(), newCommit);
-        _nodes.put(newCommit._hash, newCommit);
+        Node newCommit = new Node(message, ZonedDateTime.now(),
+                List.of(n1._hash, n2._hash),
+                Tree.update(store(), tree(n1), changes),
+                files(n1).withAll(changes));
+        writeNode(newCommit);
+        _branches.replace(currentBranch(), newCommit._hash);
+        resetIndex(newCommit);
     }
 
     /** Make a new branch with NEWNAME. */
     public void makeBranch(String newName) {
-        Node currNode = _branches.get(_currentBranch);
-        _branches.put(newName, currNode);
+        _branches.put(newName, _branches.get(_currentBranch));
     }
 
     /** Set the active branch to NEWCURR. */
@@ -107,115 +428,211 @@ public class Git implements Serializable {
     /** Checkout the node given by the HASH. */
     public void checkoutNode(String hash) throws IOException {
         Node toCheckout = findNode(hash);
-        Node latest = branches().get(currentBranch());
-        List<String> filesInDir =  Arrays.asList(Main.getCwd().list());
-        for (Map.Entry<String, File> e : toCheckout._files.entrySet()) {
-            if (!latest._files.containsKey(e.getKey())
-                    && filesInDir.contains(e.getKey())
-                    && !_removal.containsKey(e.getKey())) {
+        Node latest = head();
+        Map<String, String> changes =
+            Tree.changes(store(), tree(latest), tree(toCheckout));
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() != null
+                    && !files(latest).containsKey(e.getKey())
+                    && Utils.join(Main.getCwd(), e.getKey()).exists()) {
                 Main.error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             }
-            checkoutFile(hash, e.getKey());
-        }
-        for (Map.Entry<String, File> e : latest._files.entrySet()) {
-            if (!toCheckout._files.containsKey(e.getKey())) {
-                File f = Utils.join(Main.getCwd(), e.getKey());
-                f.delete();
-            }
         }
+        updateFiles(changes);
     }
 
     /** Checkout the BRANCH. */
     public void checkoutBranch(String branch) throws IOException {
-        Node check = branches().get(branch);
-        Node latest = branches().get(_currentBranch);
-        List<String> filesInDir = Arrays.asList(Main.getCwd().list());
-        for (Map.Entry<String, File> e : check._files.entrySet()) {
-            if (!latest._files.containsKey(e.getKey())
-                    && !latest._files.containsValue(e.getValue())
-                    && filesInDir.contains(e.getKey())) {
+        Node check = branchHead(branch);
+        Node latest = head();
+        Map<String, String> changes =
+            Tree.changes(store(), tree(latest), tree(check));
+        Set<String> blobs = new HashSet<>(files(latest).values());
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() != null
+                    && !files(latest).containsKey(e.getKey())
+                    && !blobs.contains(e.getValue())
+                    && Utils.join(Main.getCwd(), e.getKey()).exists()) {
                 Main.error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             }
-            checkoutFile(check._hash, e.getKey());
-        }
-        for (Map.Entry<String, File> e : latest._files.entrySet()) {
-            if (!check._files.containsKey(e.getKey())) {
-                File inDir = Utils.join(Main.getCwd(), e.getKey());
-                inDir.delete();
-            }
         }
+        updateFiles(changes);
         setBranch(branch);
-        _stage.clear();
-        _removal.clear();
+        resetIndex(check);
     }
 
-    /** @return the node given by its NODEHASH. */
-    public Node findNode(String nodeHash) {
-        Node toUse = null;
-        for (Map.Entry<String, Node> e : _nodes.entrySet()) {
-            String sub = e.getKey().substring(0, nodeHash.length());
-            if (sub.equals(nodeHash)) {
-                toUse = e.getValue();
+    /** Change the working files from those of the current commit to those
+     *  of another, given CHANGES, the files that differ between the two
+     *  mapped to their blob ids in the other commit, or to null where it
+     *  lacks them, as from Tree.changes.  Directories whose trees the two
+     *  commits share are not looked at, so their working files are left
+     *  as they are.  Files the other commit lacks are deleted first; of
+     *  the rest, only those whose working copy differs are written,
+     *  concurrently, and a working file staged with the wanted blob whose
+     *  stat shows it unchanged is not even read. */
+    private void updateFiles(Map<String, String> changes) throws IOException {
+        Index index = index();
+        List<File> same = new ArrayList<>();
+        List<String> write = new ArrayList<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            File f = Utils.join(Main.getCwd(), e.getKey());
+            if (e.getValue() == null) {
+                Main.deleteFile(f);
+            } else if (e.getValue().equals(index.blob(e.getKey()))
+                    && f.isFile()) {
+                same.add(f);
+            } else {
+                write.add(e.getKey());
+            }
+        }
+        List<String> hashes = index.hashOf(same);
+        for (int i = 0; i < same.size(); i += 1) {
+            String path = Main.path(same.get(i));
+            if (!hashes.get(i).equals(changes.get(path))) {
+                write.add(path);
             }
         }
-        if (toUse == null) {
+        Parallel.map(write, path -> {
+            Main.exportFile(changes.get(path),
+                    Utils.join(Main.getCwd(), path));
+            return null;
+        });
+        for (String path : write) {
+            index.put(Utils.join(Main.getCwd(), path), changes.get(path));
+        }
+    }
+
+    /** @return the node given by its NODEHASH, which may be abbreviated
+     *  to any prefix that no other commit id shares. */
+    public Node findNode(String nodeHash) {
+        List<String> ids = commitIndex().resolve(nodeHash, 1);
+        if (ids.isEmpty()) {
             Main.error("No commit with that id exists.");
+        } else if (ids.size() > 1) {
+            Main.error("Commit id " + nodeHash + " is ambiguous.");
         }
-        return toUse;
+        return node(ids.get(0));
     }
 
     /** Checkout the file given by FILENAME from the node given by NODEHASH. */
     public void checkoutFile(String nodeHash, String filename)
             throws IOException {
         Node toUse = findNode(nodeHash);
-        toUse.checkout(filename);
+        File file = Utils.join(Main.getCwd(), filename);
+        String blob = files(toUse).get(Main.path(file));
+        if (blob == null) {
+            Main.error("File does not exist in that commit.");
+        }
+        Main.exportFile(blob, file);
     }
 
     /** @return the nodes with the commit MESSAGE. */
     public List<Node> findNodesWithMessage(String message) {
         List<Node> res = new ArrayList<>();
-        for (Map.Entry<String, Node> e : _nodes.entrySet()) {
-            if (e.getValue()._message.equals(message)) {
-                res.add(e.getValue());
-            }
+        for (String id : messageIndex().exact(message)) {
+            res.add(node(id));
         }
         return res;
     }
 
-    /** Print the git log. */
-    public void printLog() {
-        StringBuilder res = new StringBuilder();
-        List<Node> toLog = new ArrayList<>();
-        Node self;
-        for (self = _branches.get(_currentBranch);
-             self._pred != null && self._pred.size() != 0;
-             self = self._pred.get(0)) {
-            toLog.add(self);
-        }
-        toLog.add(self);
-        for (Node n : toLog) {
-            res.append("\n===\n")
-                    .append(n.toString())
-                    .append("\n");
+    /** @return the nodes whose commit messages contain every word of
+     *  TERM, ignoring case. */
+    public List<Node> grepNodes(String term) {
+        List<Node> res = new ArrayList<>();
+        for (String id : messageIndex().grep(term)) {
+            res.add(node(id));
         }
-        System.out.println(res.toString().substring(1, res.length() - 1));
+        return res;
     }
 
-    /** Print the git log. */
-    public void globalLog() {
-        StringBuilder res = new StringBuilder();
-        for (Node n : _nodes.values()) {
-            res.append("\n===\n")
-                    .append(n.toString())
-                    .append("\n");
+    /** Write the log of the current branch to OUT as its commits are
+     *  read: the first-parent chain from its head, newest first.  At most
+     *  LIMIT commits are written, commits made after UNTIL are skipped,
+     *  and the walk stops at the first commit made before SINCE.  SINCE
+     *  and UNTIL may be null. */
+    public void printLog(Writer out, int limit, ZonedDateTime since,
+                         ZonedDateTime until) throws IOException {
+        boolean first = true;
+        for (Node n = head(); n != null && limit > 0;
+             n = n._parents.isEmpty() ? null : read(n._parents.get(0))) {
+            if (since != null && n._commitTime.isBefore(since)) {
+                break;
+            } else if (until != null && n._commitTime.isAfter(until)) {
+                continue;
+            }
+            writeLogEntry(out, n, first);
+            first = false;
+            limit -= 1;
+        }
+    }
+
+    /** Write the log of every commit reachable from a branch head, and if
+     *  UNREACHABLE of every other commit as well, to OUT as its commits are
+     *  read, newest first.  LIMIT, SINCE and UNTIL are as for printLog.
+     *  Commits are taken from a queue ordered by commit time that starts
+     *  with the branch heads, and the commits no other commit descends
+     *  from if UNREACHABLE, and to which each commit's parents are added
+     *  as it is written, so only the frontier of the walk is held in
+     *  memory. */
+    public void printAll(Writer out, boolean unreachable, int limit,
+                         ZonedDateTime since, ZonedDateTime until)
+            throws IOException {
+        CommitGraph graph = commitGraph();
+        BitSet seen = new BitSet(graph.size());
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int c = Long.compare(graph.time(b), graph.time(a));
+            return c != 0 ? c : Integer.compare(b, a);
+        });
+        for (String id : _branches.values()) {
+            int k = graph.position(id);
+            if (k != CommitGraph.NONE && !seen.get(k)) {
+                seen.set(k);
+                queue.add(k);
+            }
+        }
+        if (unreachable) {
+            BitSet tips = graph.tips();
+            for (int k = tips.nextSetBit(0); k >= 0; k = tips.nextSetBit(k + 1)) {
+                if (!seen.get(k)) {
+                    seen.set(k);
+                    queue.add(k);
+                }
+            }
+        }
+        boolean first = true;
+        while (!queue.isEmpty() && limit > 0) {
+            int k = queue.poll();
+            for (int i = 0; i < 2; i += 1) {
+                int p = graph.parent(k, i);
+                if (p != CommitGraph.NONE && !seen.get(p)) {
+                    seen.set(p);
+                    queue.add(p);
+                }
+            }
+            if (since != null && graph.time(k) < nanos(since)) {
+                break;
+            } else if (until != null && graph.time(k) > nanos(until)) {
+                continue;
+            }
+            writeLogEntry(out, read(graph.id(k)), first);
+            first = false;
+            limit -= 1;
         }
-        System.out.println(res.toString().substring(1, res.length() - 1));
+    }
+
+    /** Write the log entry of N to OUT, after a blank line unless it is
+     *  the FIRST entry. */
+    private void writeLogEntry(Writer out, Node n, boolean first)
+            throws IOException {
+        out.write(first ? "===\n" : "\n===\n");
+        out.write(n.toString());
+        out.write("\n");
     }
 
     /** Print the git status. */
-    public void printStatus() {
+    public void printStatus() throws IOException {
         String res =
                 "=== Branches ===\n"
                         + "%s\n"
@@ -230,15 +647,16 @@ public class Git implements Serializable {
         String branches = branchesString();
         String stagedFiles = stagedString();
         String removedFiles = rmString();
-        String modifications = modifiedString();
-        String untracked = untrackedString();
+        Map<String, Integer> changes = modifiedOrUntracked();
+        String modifications = modifiedString(changes);
+        String untracked = untrackedString(changes);
         System.out.println(String.format(res, branches, stagedFiles,
                 removedFiles, modifications, untracked));
     }
 
-    /** Return a string describing modified files. */
-    public String modifiedString() {
-        Map<String, Integer> map = modifiedOrUntracked();
+    /** Return a string describing the modified files in MAP, as
+     *  computed by modifiedOrUntracked. */
+    public String modifiedString(Map<String, Integer> map) {
         StringBuilder res = new StringBuilder();
         for (Map.Entry<String, Integer> e : map.entrySet()) {
             if (e.getValue() == 0 && !_conflicted.contains(e.getKey())) {
@@ -250,9 +668,9 @@ public class Git implements Serializable {
         return res.toString();
     }
 
-    /** Return a string describing untracked files. */
-    public String untrackedString() {
-        Map<String, Integer> map = modifiedOrUntracked();
+    /** Return a string describing the untracked files in MAP, as
+     *  computed by modifiedOrUntracked. */
+    public String untrackedString(Map<String, Integer> map) {
         StringBuilder res = new StringBuilder();
         for (Map.Entry<String, Integer> e : map.entrySet()) {
             if (e.getValue() == 2) {
@@ -262,160 +680,488 @@ public class Git implements Serializable {
         return res.toString();
     }
 
-    /** Return a map of modified or untracked files.
-     * 0 -> modified, 1 -> deleted, 2 -> untracked. */
-    public Map<String, Integer> modifiedOrUntracked() {
-        HashMap<String, Integer> map = new HashMap<>();
-        for (File file : Main.getCwd().listFiles()) {
-            if (file.isFile() && !file.isHidden()) {
-                String hashOfFile = Main.backup(file).getName();
-                File staged = _stage.getOrDefault(file.getName(), null);
-                File rmed = _removal.getOrDefault(file.getName(), null);
-                File committed = branches().get(currentBranch())
-                        ._files.getOrDefault(file.getName(), null);
-                if (staged == null && rmed == null && committed == null) {
-                    map.put(file.getName(), 2);
-                } else if ((staged != null
-                        && !hashOfFile.equals(staged.getName()))
-                        || (committed != null && !hashOfFile
-                        .equals(committed.getName()))) {
-                    map.put(file.getName(), 0);
+    /** Return a map of modified or untracked files, in order of path.
+     * 0 -> modified, 1 -> deleted, 2 -> untracked.  Only staged files
+     * whose size, time or inode changed since they were staged are
+     * read.  A directory with nothing staged under it is not entered, and
+     * is listed as untracked by its path and a '/'.  When this process
+     * watches the working directory, the working files are not listed at
+     * all, and only those changed since they were last hashed are
+     * looked at. */
+    public Map<String, Integer> modifiedOrUntracked() throws IOException {
+        Map<String, Integer> map = new TreeMap<>();
+        Index index = index();
+        Watcher watcher = Watcher.current();
+        Set<String> present = new HashSet<>();
+        List<File> tracked = new ArrayList<>();
+        if (watcher != null) {
+            for (String path : watcher.refresh()) {
+                String blob = watcher.blob(path);
+                if (!index.contains(path)) {
+                    map.put(untracked(path), 2);
+                } else if (blob == null) {
+                    present.add(path);
+                    tracked.add(Utils.join(Main.getCwd(), path));
+                } else {
+                    present.add(path);
+                    if (!blob.equals(index.blob(path))) {
+                        map.put(path, 0);
+                    }
+                }
+            }
+        } else {
+            for (File file : Main.workingFiles(Main.getCwd(),
+                    dir -> index.containsUnder(Main.path(dir)))) {
+                String path = Main.path(file);
+                if (file.isDirectory()) {
+                    map.put(path + "/", 2);
+                } else if (!index.contains(path)) {
+                    map.put(path, 2);
+                } else {
+                    present.add(path);
+                    tracked.add(file);
                 }
             }
         }
-        List<String> cwdFilenames = Arrays
-                .stream(Main.getCwd().list()).toList();
-        for (String fileName : _stage.keySet()) {
-            if (!cwdFilenames.contains(fileName)) {
-                map.put(fileName, 1);
+        List<String> hashes = index.hashOf(tracked);
+        for (int i = 0; i < tracked.size(); i += 1) {
+            String path = Main.path(tracked.get(i));
+            if (watcher != null) {
+                watcher.setBlob(path, hashes.get(i));
+            }
+            if (!hashes.get(i).equals(index.blob(path))) {
+                map.put(path, 0);
             }
         }
-        for (String fileName : branches().get(currentBranch())
-                ._files.keySet()) {
-            if (!cwdFilenames.contains(fileName)
-                    && !_removal.containsKey(fileName)) {
-                map.put(fileName, 1);
+        for (String path : index.files().keySet()) {
+            if (!present.contains(path)) {
+                map.put(path, 1);
             }
         }
         return map;
 
     }
 
+    /** @return PATH, an untracked working file, as status lists it: as
+     *  the path and a '/' of the highest directory above it with nothing
+     *  staged under it, if there is one. */
+    private String untracked(String path) {
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', slash + 1)) {
+            if (!index().containsUnder(path.substring(0, slash))) {
+                return path.substring(0, slash + 1);
+            }
+        }
+        return path;
+    }
+
+    /** @return the working files under the directory DIR that may differ
+     *  from their staged versions: all of them, unless this process
+     *  watches the working directory, when those known to match are left
+     *  out without being looked at. */
+    public List<File> changedFiles(File dir) throws IOException {
+        Watcher watcher = Watcher.current();
+        if (watcher == null) {
+            return Main.workingFiles(dir, d -> true);
+        }
+        String prefix = Main.path(dir).isEmpty() ? "" : Main.path(dir) + "/";
+        List<File> res = new ArrayList<>();
+        for (String path : watcher.refresh().tailSet(prefix)) {
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            String blob = watcher.blob(path);
+            if (blob == null || !blob.equals(index().blob(path))) {
+                res.add(Utils.join(Main.getCwd(), path));
+            }
+        }
+        return res;
+    }
+
+    /** Write to OUT, as a unified diff found with ALGORITHM, the
+     *  differences between the staged files and the working files, for
+     *  each staged file that status lists as modified or deleted.  Only
+     *  working files whose stat changed since they were staged are read. */
+    public void diffWorking(Writer out, Diff.Algorithm algorithm)
+            throws IOException {
+        for (Map.Entry<String, Integer> e
+                 : modifiedOrUntracked().entrySet()) {
+            String path = e.getKey();
+            if (e.getValue() == 0) {
+                File file = Utils.join(Main.getCwd(), path);
+                writeDiff(out, path, contents(index().blob(path)),
+                        Files.readAllBytes(file.toPath()), algorithm);
+            } else if (e.getValue() == 1) {
+                writeDiff(out, path, contents(index().blob(path)), null,
+                        algorithm);
+            }
+        }
+    }
+
+    /** Write to OUT, as a unified diff found with ALGORITHM, the changes
+     *  staged for the next commit. */
+    public void diffStaged(Writer out, Diff.Algorithm algorithm)
+            throws IOException {
+        Map<String, String> committed = files(head());
+        Map<String, String> changes = new TreeMap<>(stagedFiles());
+        for (String path : removedFiles()) {
+            changes.put(path, null);
+        }
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            writeDiff(out, e.getKey(), contents(committed.get(e.getKey())),
+                    contents(e.getValue()), algorithm);
+        }
+    }
+
+    /** Write to OUT, as a unified diff found with ALGORITHM, the changes
+     *  from the commit FROM to the commit TO, each a branch name or a
+     *  commit id.  Only the files under trees that differ are looked at,
+     *  and their old blobs are found in FROM's files. */
+    public void diffCommits(Writer out, String from, String to,
+                            Diff.Algorithm algorithm) throws IOException {
+        Node node1 = branchOrCommit(from), node2 = branchOrCommit(to);
+        Map<String, String> before = files(node1),
+            after = Tree.changes(store(), tree(node1), tree(node2));
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            writeDiff(out, e.getKey(), contents(before.get(e.getKey())),
+                    contents(e.getValue()), algorithm);
+        }
+    }
+
+    /** @return the head of the branch NAME, if there is one, and
+     *  otherwise the commit whose id is or starts with NAME. */
+    private Node branchOrCommit(String name) {
+        return _branches.containsKey(name) ? branchHead(name)
+            : findNode(name);
+    }
+
+    /** @return the contents of the blob with id BLOB, or null if BLOB is
+     *  null. */
+    private static byte[] contents(String blob) throws IOException {
+        if (blob == null) {
+            return null;
+        }
+        try (InputStream in = Main.openBlob(blob)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Write to OUT the unified diff, found with ALGORITHM, of the file
+     *  PATH from the contents BEFORE to AFTER, either of which is null if
+     *  the file is absent on that side.  Files with a NUL byte near the
+     *  start are only said to differ. */
+    private static void writeDiff(Writer out, String path, byte[] before,
+                                  byte[] after, Diff.Algorithm algorithm)
+            throws IOException {
+        String from = before == null ? "/dev/null" : "a/" + path,
+            to = after == null ? "/dev/null" : "b/" + path;
+        out.write("diff --gitlet a/" + path + " b/" + path + "\n");
+        if (binary(before) || binary(after)) {
+            out.write("Binary files " + from + " and " + to + " differ\n");
+            return;
+        }
+        out.write("--- " + from + "\n+++ " + to + "\n");
+        Diff diff = new Diff();
+        diff.setAlgorithm(algorithm);
+        diff.setSequences(lines(before), lines(after));
+        diff.writeHunks(out, DIFF_CONTEXT);
+    }
+
+    /** @return true iff CONTENTS, which may be null, has a NUL byte in its
+     *  first BINARY_PREFIX bytes. */
+    private static boolean binary(byte[] contents) {
+        if (contents != null) {
+            for (int i = 0; i < Math.min(contents.length, BINARY_PREFIX);
+                 i += 1) {
+                if (contents[i] == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return the lines of CONTENTS, read as UTF-8, or no lines if it is
+     *  null. */
+    private static List<String> lines(byte[] contents) {
+        return contents == null ? Collections.emptyList()
+            : Diff.lines(new String(contents, StandardCharsets.UTF_8));
+    }
+
     /** Merge the current branch with the branch given by BRANCHNAME. */
     public void merge(String branchName) throws IOException {
         if (branchName.equals(_currentBranch)) {
             Main.error("Cannot merge a branch with itself.");
         }
         boolean mc = false;
-        Node l = branches().get(currentBranch());
-        Node m = branches().get(branchName); Node d = toDiff(l, m);
-        if (allPreds(m).contains(l)) {
+        Node l = head();
+        Node m = branchHead(branchName); Node d = mergeBase(l, m);
+        if (d.equals(m)) {
+            Main.error("Given branch is an ancestor of the current branch.");
+        } else if (d.equals(l)) {
             checkoutBranch(branchName);
             Main.error("Current branch fast-forwarded.");
-        } else if (m._hash.equals(d._hash)) {
-            Main.error("Cannot merge a branch with itself.");
-        } else if (allPreds(l).contains(m)) {
-            Main.error("Given branch is an ancestor of the current branch.");
         }
-        Map<String, File> toProcess = new HashMap<>(m._files),
-                add = new HashMap<>(), rem = new HashMap<>();
-        toProcess.putAll(l._files);
-        for (Map.Entry<String, File> e : toProcess.entrySet()) {
-            File f = Utils.join(Main.getCwd(), e.getKey());
-            if (f.exists() && !l._files.containsKey(f.getName())) {
-                _conflicted.add(f.getName());
+        Map<String, String> lFiles = files(l), mFiles = files(m),
+            dFiles = files(d);
+        Set<String> paths = new TreeSet<>(
+                Tree.changes(store(), tree(d), tree(l)).keySet());
+        paths.addAll(Tree.changes(store(), tree(d), tree(m)).keySet());
+        for (String path : paths) {
+            if (!lFiles.containsKey(path)
+                    && Utils.join(Main.getCwd(), path).exists()) {
+                _conflicted.add(path);
                 Main.save(Utils.join(Main.getStorageFolder(), "system"), this);
                 Main.error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
             }
-            File f1 = l._files.getOrDefault(e.getKey(), null),
-                    f2 = m._files.getOrDefault(e.getKey(), null),
-                    dFile = d._files.getOrDefault(e.getKey(), null);
-            String h1 = f1 == null ? "" : f1.getName(),
-                    h2 = f2 == null ? "" : f2.getName(),
-                    hD = dFile == null ? "" : dFile.getName();
-            if (hD.length() == 0 && h1.length() > 0 && h2.length() == 0) {
-                continue;
-            } else if (hD.length() == 0 && h2.length() > 0
-                    && h1.length() == 0) {
-                checkoutFile(m._hash, e.getKey());
-                add.put(e.getKey(), e.getValue());
-            } else if (hD.length() > 0 && hD.equals(h1)
-                    && h2.length() == 0) {
-                f.delete();
-                rem.put(e.getKey(), e.getValue());
-            } else if (hD.length() > 0 && hD.equals(h2)
-                    && h1.length() == 0) {
+        }
+        Map<String, String> changes = new TreeMap<>();
+        List<String> both = new ArrayList<>();
+        for (String path : paths) {
+            String f1 = lFiles.get(path), f2 = mFiles.get(path),
+                    dFile = dFiles.get(path);
+            if (Objects.equals(f1, f2) || Objects.equals(f2, dFile)) {
                 continue;
-            } else if (dFile != null && !dFile.equals(e.getValue())
-                    && hD.equals(h1)) {
-                Main.exportFile(e.getValue(), f);
+            } else if (Objects.equals(f1, dFile)) {
+                changes.put(path, f2);
             } else {
-                File merged = mergeConflict(f, f1, f2);
+                both.add(path);
+            }
+        }
+        List<Map.Entry<String, Boolean>> merged = Parallel.map(both,
+            path -> mergeBlobs(dFiles.get(path), lFiles.get(path),
+                    mFiles.get(path)));
+        for (int i = 0; i < both.size(); i += 1) {
+            changes.put(both.get(i), merged.get(i).getKey());
+            if (merged.get(i).getValue()) {
                 mc = true;
-                _conflicted.add(merged.getName());
-                add.put(e.getKey(), merged);
+                _conflicted.add(both.get(i));
             }
         }
-        mergeCommit(l, m, branchName, add, rem);
+        updateFiles(changes);
+        mergeCommit(l, m, branchName, changes);
         if (mc && !branchName.contains("/")) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
-    /** Resolve and return F, the file conflicting
-     * from contents at H1 and H2. */
-    public File mergeConflict(File f, File h1, File h2) {
-        String t1 = h1 != null ? Utils.readContentsAsString(h1) : "",
-                t2 = h2 != null ? Utils.readContentsAsString(h2) : "";
-        StringBuilder res = new StringBuilder();
-        res.append("<<<<<<< HEAD\n")
-                .append(t1)
-                .append("=======\n")
-                .append(t2)
-                .append(">>>>>>>\n");
-        Utils.writeContents(f, res.toString());
-        return f;
-    }
-
-    /** Returns the latest common ancestor between NODE1 and NODE2. */
-    private Node toDiff(Node node1, Node node2) {
-        List<Node> pred1 = allPreds(node1), pred2 = allPreds(node2);
-        int i;
-        for (i = 0; i < Math.min(pred1.size(), pred2.size()); i++) {
-            if (!pred1.get(i)._hash.equals(pred2.get(i)._hash)) {
-                break;
+    /** Store the merge of the blobs with ids H1, ours, and H2, theirs, two
+     *  versions of the blob with id BASE, any of which may be null.  Where
+     *  both sides have the file and it is text, lines changed on one side
+     *  only are taken from that side, and conflict markers go only around
+     *  the lines the two change differently, as Diff3 finds them;
+     *  otherwise the whole of each side is one conflict.  Files are read
+     *  and written as ISO-8859-1, so every byte is kept as it was.  The
+     *  merge is written to a temporary file and backed up from there, and
+     *  no working file is touched.  @return the id of the merged blob and
+     *  whether there was a conflict. */
+    public Map.Entry<String, Boolean> mergeBlobs(String base, String h1,
+                                                  String h2)
+            throws IOException {
+        File tmp = File.createTempFile("merge", null,
+                Main.getStorageFolder());
+        try {
+            boolean conflict = mergeInto(tmp, base, h1, h2);
+            return Map.entry(Main.backup(tmp), conflict);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Write the merge of H1 and H2 from BASE, as mergeBlobs describes, to
+     *  F.  @return true iff there was a conflict. */
+    private boolean mergeInto(File f, String base, String h1, String h2)
+            throws IOException {
+        if (h1 != null && h2 != null) {
+            List<String> ours = textLines(h1), theirs = textLines(h2),
+                original = textLines(base);
+            if (ours != null && theirs != null && original != null) {
+                try (Writer out = Files.newBufferedWriter(f.toPath(),
+                        StandardCharsets.ISO_8859_1)) {
+                    return Diff3.merge(original, ours, theirs, out);
+                }
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(f.toPath()))) {
+            out.write(Diff3.OURS.getBytes(StandardCharsets.UTF_8));
+            if (h1 != null) {
+                try (InputStream in = Main.openBlob(h1)) {
+                    in.transferTo(out);
+                }
+            }
+            out.write(Diff3.SEPARATOR.getBytes(StandardCharsets.UTF_8));
+            if (h2 != null) {
+                try (InputStream in = Main.openBlob(h2)) {
+                    in.transferTo(out);
+                }
             }
+            out.write(Diff3.THEIRS.getBytes(StandardCharsets.UTF_8));
         }
-        return pred1.get(i - 1);
+        return true;
     }
 
-    /** Return a list of all of N's predecessors. */
-    private List<Node> allPreds(Node n) {
-        List<Node> queue,
-                res = new ArrayList<>(),
-                par = n._pred;
-        queue = new ArrayList<>(par);
-        while (queue.size() > 0) {
-            Node self = queue.remove(0);
-            if (!res.contains(self)) {
-                res.add(0, self);
+    /** @return the lines of the blob with id BLOB, read as ISO-8859-1
+     *  with each keeping its line terminator, no lines if BLOB is null,
+     *  or null if the blob has a NUL byte in its first BINARY_PREFIX
+     *  bytes.  The blob is read through a buffer of LINE_BUFFER
+     *  characters, so only its lines are held, not a copy of the whole
+     *  of it besides. */
+    private static List<String> textLines(String blob) throws IOException {
+        List<String> res = new ArrayList<>();
+        if (blob == null) {
+            return res;
+        }
+        try (Reader in = new InputStreamReader(Main.openBlob(blob),
+                StandardCharsets.ISO_8859_1)) {
+            char[] buf = new char[LINE_BUFFER];
+            StringBuilder line = new StringBuilder();
+            long read = 0;
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                for (int i = 0; i < n && read + i < BINARY_PREFIX;
+                     i += 1) {
+                    if (buf[i] == 0) {
+                        return null;
+                    }
+                }
+                int start = 0;
+                for (int i = 0; i < n; i += 1) {
+                    if (buf[i] == '\n') {
+                        line.append(buf, start, i + 1 - start);
+                        res.add(line.toString());
+                        line.setLength(0);
+                        start = i + 1;
+                    }
+                }
+                line.append(buf, start, n - start);
+                read += n;
             }
-            if (self._pred != null) {
-                queue.addAll(self._pred);
+            if (line.length() > 0) {
+                res.add(line.toString());
             }
         }
-        if (res.size() > 4) {
-            Collections.sort(res, new Comparator<Node>() {
-                @Override
-                public int compare(Node o1, Node o2) {
-                    return o1._commitTime.compareTo(o2._commitTime);
+        return res;
+    }
+
+    /** @return the merge base of NODE1 and NODE2: their latest common
+     *  ancestor.  Where criss-cross merges have left more than one, the
+     *  most recent is used. */
+    private Node mergeBase(Node node1, Node node2) {
+        CommitGraph graph = commitGraph();
+        int best = CommitGraph.NONE;
+        for (int k : graph.mergeBases(graph.position(node1._hash),
+                graph.position(node2._hash))) {
+            if (best == CommitGraph.NONE || graph.time(k) > graph.time(best)
+                    || graph.time(k) == graph.time(best) && k > best) {
+                best = k;
+            }
+        }
+        return node(graph.id(best));
+    }
+
+    /** @return a map from each blob in the commits with ids COMMITS to
+     *  the previous version of the same file, in commit order, for the
+     *  first commit each blob appears in.  Blobs only ever point back to
+     *  blobs that appeared earlier, so following the map always ends. */
+    public Map<String, String> deltaBases(Collection<String> commits) {
+        List<Node> all = new ArrayList<>();
+        for (String id : commits) {
+            all.add(node(id));
+        }
+        all.sort(Comparator.comparing(n -> n._commitTime));
+        Map<String, String> bases = new HashMap<>(), last = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (Node n : all) {
+            for (Map.Entry<String, String> e : changes(n).entrySet()) {
+                if (e.getValue() == null) {
+                    continue;
+                }
+                String prev = last.put(e.getKey(), e.getValue());
+                if (seen.add(e.getValue()) && prev != null) {
+                    bases.put(e.getValue(), prev);
                 }
-            });
+            }
+        }
+        return bases;
+    }
+
+    /** @return the ids of all commits reachable from some branch. */
+    public Set<String> reachableCommits() {
+        Set<String> res = new HashSet<>();
+        ArrayDeque<String> todo = new ArrayDeque<>(_branches.values());
+        while (!todo.isEmpty()) {
+            String id = todo.pop();
+            if (res.add(id)) {
+                todo.addAll(node(id)._parents);
+            }
         }
         return res;
     }
 
+    /** Delete every commit no branch reaches and every blob or tree that
+     *  neither a remaining commit nor the staging area uses, then repack
+     *  all the remaining objects.  Since every blob of a commit is either
+     *  new in it or in its first parent, each commit adds only the blobs
+     *  its changes introduce. */
+    public void gc() throws IOException {
+        Set<String> commits = reachableCommits();
+        Set<String> blobs = new HashSet<>(index().files().values());
+        for (String id : commits) {
+            Node n = node(id);
+            for (String blob : changes(n).values()) {
+                if (blob != null) {
+                    blobs.add(blob);
+                }
+            }
+            Tree.ids(store(), tree(n), blobs);
+        }
+        for (String id : commitIds()) {
+            if (!commits.contains(id)) {
+                Files.delete(Utils.join(_storage, COMMITS, id).toPath());
+                _loaded.remove(id);
+            }
+        }
+        reindex(commits);
+        Store.deleteStaleTemps(_storage);
+        Main.getStore().repackAll(blobs, deltaBases(commits));
+        markPacked();
+    }
+
+    /** Pack the loose blobs if there are more than about GC_AUTO of
+     *  them.  Nothing is deleted.  Only the commits made or fetched since
+     *  the last pack can have loose blobs, so only they are read to find
+     *  delta bases. */
+    public void autoGc() throws IOException {
+        Store store = Main.getStore();
+        if (store.looseEstimate() > GC_AUTO) {
+            store.repack(deltaBases(unpackedCommits()));
+            markPacked();
+        }
+    }
+
+    /** @return the ids of the commits added to the commit graph since
+     *  blobs were last packed. */
+    private List<String> unpackedCommits() {
+        CommitGraph graph = commitGraph();
+        File mark = Utils.join(_storage, PACKED);
+        int start = mark.isFile()
+            ? Integer.parseInt(Utils.readContentsAsString(mark).trim()) : 0;
+        List<String> res = new ArrayList<>();
+        for (int k = Math.min(start, graph.size()); k < graph.size();
+             k += 1) {
+            res.add(graph.id(k));
+        }
+        return res;
+    }
+
+    /** Record that the blobs of every commit now in the commit graph have
+     *  been packed. */
+    private void markPacked() {
+        Utils.writeContents(Utils.join(_storage, PACKED),
+                String.valueOf(commitGraph().size()));
+    }
+
     /** Add a new remote.
      * @param name
      * @param loc */
@@ -444,24 +1190,18 @@ public class Git implements Serializable {
         }
         File remoteLoc = _remotes.get(name);
         Git remoteGitlet = Main.readSystem(remoteLoc);
-        Node localHead = branches().get(currentBranch());
-        Node remoteHead = remoteGitlet.branches().get(branch);
-        List<String> preds = allPreds(localHead)
-                .stream().map(x -> x._hash).toList();
-        if (!preds.contains(remoteHead._hash)) {
+        Node localHead = head();
+        Node remoteHead = remoteGitlet.branchHead(branch);
+        if (!remoteHead._hash.equals(localHead._hash)
+                && !isAncestor(remoteHead._hash, localHead._hash)) {
             Main.error("Please pull down remote changes before pushing.");
         }
-        remoteGitlet._branches.replace(branch, localHead);
-        remoteGitlet._nodes.putAll(_nodes);
-        for (File f : Main.getStorageFolder().listFiles()) {
-            if (!f.getName().equals("system")) {
-                Files.copy(
-                        f.toPath(),
-                        Utils.join(remoteLoc, f.getName()).toPath(),
-                        StandardCopyOption.REPLACE_EXISTING
-                );
-            }
-        }
+        List<String> commits = missingCommits(localHead._hash,
+                remoteGitlet._branches.values());
+        remoteGitlet._branches.replace(branch, localHead._hash);
+        remoteGitlet.indexCommits(Main.copyStorage(Main.getStorageFolder(),
+                remoteLoc, commits, newObjects(commits),
+                deltaBases(commits)));
         Main.save(Utils.join(remoteLoc, "system"), remoteGitlet);
     }
 
@@ -478,20 +1218,63 @@ public class Git implements Serializable {
             Main.error("That remote does not have that branch.");
         }
         String newBranch = name + "/" + branch;
-        Node headOfBranch = remoteGitlet.branches()
-                .get(remoteGitlet.currentBranch());
+        String headOfBranch = remoteGitlet.branches().get(branch);
+        List<String> commits = remoteGitlet.missingCommits(headOfBranch,
+                _branches.values());
         _branches.put(newBranch, headOfBranch);
-        _nodes.putAll(remoteGitlet._nodes);
-        for (File f : remoteLoc.listFiles()) {
-            if (!f.getName().equals("system")) {
-                Files.copy(
-                        f.toPath(),
-                        Utils.join(Main.getStorageFolder(),
-                                f.getName()).toPath(),
-                        StandardCopyOption.REPLACE_EXISTING
-                );
+        indexCommits(Main.copyStorage(remoteLoc, Main.getStorageFolder(),
+                commits, remoteGitlet.newObjects(commits),
+                remoteGitlet.deltaBases(commits)));
+    }
+
+    /** @return the ids of the commit with id WANT and of its ancestors,
+     *  except those that are, or are ancestors of, one of the commits with
+     *  ids HAVES, the branch heads of the side they are to be sent to.
+     *  That side has everything reachable from its heads, so these are
+     *  the commits it lacks.  Heads this system does not know are left
+     *  out. */
+    public List<String> missingCommits(String want,
+                                       Collection<String> haves) {
+        CommitGraph graph = commitGraph();
+        List<Integer> known = new ArrayList<>();
+        for (String id : haves) {
+            int k = graph.position(id);
+            if (k != CommitGraph.NONE) {
+                known.add(k);
             }
         }
+        List<String> res = new ArrayList<>();
+        for (int k : graph.missing(graph.position(want), known)) {
+            res.add(graph.id(k));
+        }
+        return res;
+    }
+
+    /** @return the ids of the trees and blobs of the commits with ids
+     *  COMMITS that none of their parents has at the same path.  The
+     *  others are either those of a parent also in COMMITS, or of a commit
+     *  the receiving side already has. */
+    public Set<String> newObjects(Collection<String> commits) {
+        Set<String> res = new HashSet<>();
+        for (String id : commits) {
+            Node n = node(id);
+            Set<String> added = null;
+            if (n._parents.isEmpty()) {
+                added = new HashSet<>();
+                Tree.added(store(), null, tree(n), added);
+            }
+            for (String p : n._parents) {
+                Set<String> fromParent = new HashSet<>();
+                Tree.added(store(), tree(node(p)), tree(n), fromParent);
+                if (added == null) {
+                    added = fromParent;
+                } else {
+                    added.retainAll(fromParent);
+                }
+            }
+            res.addAll(added);
+        }
+        return res;
     }
 
     public void pull(String name, String branch) throws IOException {
@@ -500,81 +1283,36 @@ public class Git implements Serializable {
         merge(name + "/" + branch);
     }
 
-    public class Node implements Serializable {
-
-        public Node(String message, ZonedDateTime date, boolean hasParent) {
-            _message = message;
-            _commitTime = date;
-            if (hasParent) {
-                _files = new HashMap<>(_branches.get(_currentBranch)._files);
-                _pred = new ArrayList<>() {{
-                        add(_branches.get(_currentBranch));
-                    }};
-            } else {
-                _files = new HashMap<>();
-                _pred = new ArrayList<>();
-            }
-            _next = new ArrayList<>();
-            if (!_stage.isEmpty()) {
-                for (Map.Entry<String, File> e : _stage.entrySet()) {
-                    if (e.getValue() == null) {
-                        continue;
-                    } else if (!_files.containsKey(e.getKey())) {
-                        _files.put(e.getKey(), e.getValue());
-                    } else {
-                        _files.replace(e.getKey(), e.getValue());
-                    }
-                }
-            }
-            if (!_removal.isEmpty()) {
-                for (String e : _removal.keySet()) {
-                    _files.remove(e);
-                }
-            }
-            _hash = hash();
-        }
+    /** A single commit.  Commits are immutable once made, refer to their
+     *  parents by id, and are each saved to their own file so that they
+     *  can be read only when needed. */
+    public static class Node implements Serializable {
 
-        public Node(String message, ZonedDateTime date, Node other,
-                    Map<String, File> add, Map<String, File> rem) {
+        /** A commit with MESSAGE made at DATE on the commits with ids
+         *  PARENTS, whose files FILES are stored under the tree with id
+         *  TREE.  FILES may be null, in which case they are read from the
+         *  tree when first needed. */
+        public Node(String message, ZonedDateTime date, List<String> parents,
+                    String tree, FileMap files) {
             _message = message;
             _commitTime = date;
-            _pred = new ArrayList<>() {{
-                    add(_branches.get(currentBranch()));
-                    add(other);
-                }};
-            _next = new ArrayList<>();
-            _files = new HashMap<>(_branches.get(currentBranch())._files);
-            _files.putAll(add);
-            for (Map.Entry<String, File> e : rem.entrySet()) {
-                _files.remove(e.getKey());
-            }
+            _parents = new ArrayList<>(parents);
+            _tree = tree;
+            _flat = files;
             _hash = hash();
         }
 
-        /** Checkout the FILENAME from this node. */
-        public void checkout(String filename) throws IOException {
-            File file = Utils.join(Main.getCwd(), filename);
-            if (!_files.containsKey(filename)) {
-                Main.error("File does not exist in that commit.");
-            }
-            Main.exportFile(_files.get(filename), file);
-        }
-
-        /** Return the hash of this node's unique properties. */
+        /** Return the hash of this node's unique properties.  The id of
+         *  its tree stands for all of its files, and its parents are
+         *  included so that equal commits on different histories differ. */
         public String hash() {
-            StringBuilder props = new StringBuilder();
-            props.append(_message);
-            for (Map.Entry<String, File> e : _files.entrySet()) {
-                props.append(e.getKey());
-                props.append(e.getValue().toString());
-            }
-            props.append(_commitTime.toString());
-            return Utils.sha1(props.toString());
+            return Utils.sha1(_message, _tree, _commitTime.toString(),
+                    String.join(" ", _parents));
         }
 
         @Override
         public String toString() {
-            List<Node> parents = _pred;
+            List<String> parents = _parents;
             DateTimeFormatter format = DateTimeFormatter.ofPattern(
                     "EEE LLL dd HH:mm:ss yyyy Z"
             );
@@ -582,11 +1320,11 @@ public class Git implements Serializable {
             res.append("commit ")
                     .append(_hash)
                     .append("\n");
-            if (parents != null && parents.size() > 1) {
+            if (parents.size() > 1) {
                 res.append("Merge: ")
-                        .append(parents.get(0)._hash.substring(0, 7))
+                        .append(parents.get(0).substring(0, 7))
                         .append(" ")
-                        .append(parents.get(1)._hash.substring(0, 7))
+                        .append(parents.get(1).substring(0, 7))
                         .append("\n");
             }
             res.append("Date: ")
@@ -596,6 +1334,16 @@ public class Git implements Serializable {
             return res.toString();
         }
 
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Node && ((Node) o)._hash.equals(_hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash.hashCode();
+        }
+
         /** The hash for this commit. */
         protected String _hash;
 
@@ -605,14 +1353,19 @@ public class Git implements Serializable {
         /** The time this commit was made. */
         protected ZonedDateTime _commitTime;
 
-        /** The hashmap relating file names to their hash locations. */
-        protected Map<String, File> _files;
+        /** The id of the tree holding this commit's files. */
+        protected String _tree;
+
+        /** The paths of this commit's files mapped to their blob ids, or
+         *  null until read from its tree. */
+        private transient FileMap _flat;
 
-        /** The predecessor set of nodes. */
-        protected List<Node> _pred;
+        /** The ids of the parent commits. */
+        protected List<String> _parents;
 
-        /** The successor set of nodes. */
-        protected List<Node> _next;
+        /** Fixed so that adding methods does not make existing commits
+         *  unreadable. */
+        private static final long serialVersionUID = 1L;
 
     }
 
@@ -621,8 +1374,8 @@ public class Git implements Serializable {
         return _currentBranch;
     }
 
-    /** Return the hashmap of all branches. */
-    public Map<String, Node> branches() {
+    /** Return the hashmap of all branches to their head commit ids. */
+    public Map<String, String> branches() {
         return _branches;
     }
 
@@ -642,11 +1395,9 @@ public class Git implements Serializable {
     /** Return the representation of all the staged files for status. */
     public String stagedString() {
         StringBuilder res = new StringBuilder();
-        for (Map.Entry<String, File> e : _stage.entrySet()) {
-            if (e.getValue() != null) {
-                res.append(e.getKey())
-                        .append("\n");
-            }
+        for (String b : stagedFiles().keySet()) {
+            res.append(b)
+                    .append("\n");
         }
         return res.toString();
     }
@@ -654,24 +1405,15 @@ public class Git implements Serializable {
     /** Return the representation of all the removed files for status. */
     public String rmString() {
         StringBuilder res = new StringBuilder();
-        for (String b : _removal.keySet()) {
+        for (String b : removedFiles()) {
             res.append(b)
                     .append("\n");
         }
         return res.toString();
     }
 
-    /** All nodes indexed by their hash. */
-    protected Map<String, Node> _nodes;
-
-    /** All branches indexed by their name. */
-    protected Map<String, Node> _branches;
-
-    /** All staged files indexed by their name. */
-    protected Map<String, File> _stage;
-
-    /** All removed files indexed by their name. */
-    protected Map<String, File> _removal;
+    /** The ids of all branch heads indexed by branch name. */
+    protected Map<String, String> _branches;
 
     /** All remote files indexed by their name. */
     protected Map<String, File> _remotes;
@@ -685,6 +1427,58 @@ public class Git implements Serializable {
     /** Trigger if happened. */
     protected boolean _pull = false;
 
+    /** The .gitlet folder this system is stored in. */
+    private transient File _storage;
+
+    /** Commits read from or written to _storage during this run. */
+    private transient Map<String, Node> _loaded;
+
+    /** The staging area, or null if it has not been read yet. */
+    private transient Index _index;
+
+    /** The index of commit ids, or null if it has not been opened yet. */
+    private transient CommitIndex _commitIndex;
+
+    /** The index of commit messages, or null if it has not been opened
+     *  yet. */
+    private transient MessageIndex _messageIndex;
+
+    /** The commit graph, or null if it has not been opened yet. */
+    private transient CommitGraph _commitGraph;
+
+    /** The store of a remote system, or null. */
+    private transient Store _store;
+
+    /** Name of the staging area file. */
+    static final String INDEX = "index";
+
+    /** Number of loose blobs above which they are packed automatically. */
+    static final int GC_AUTO = 6700;
+
+    /** Unchanged lines shown around each change by diff. */
+    static final int DIFF_CONTEXT = 3;
+
+    /** Bytes at the start of a file looked at to decide whether diff
+     *  treats it as binary. */
+    private static final int BINARY_PREFIX = 8000;
+
+    /** The number of characters textLines reads at a time. */
+    private static final int LINE_BUFFER = 1 << 16;
+
+    /** Nanoseconds per second. */
+    private static final long NANOS = 1_000_000_000L;
+
+    /** Name of the folder holding one file per commit. */
+    static final String COMMITS = "commits";
+
+    /** Name of the file holding the number of commits in the commit graph
+     *  when blobs were last packed. */
+    static final String PACKED = "packed-commits";
+
+    /** Fixed so that adding methods does not make existing repositories
+     *  unreadable. */
+    private static final long serialVersionUID = 1L;
+
     /** The initial commit time of Jan 1, 1970. */
     static final ZonedDateTime INITIAL_COMMIT_TIME =
             ZonedDateTime.of(1970, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
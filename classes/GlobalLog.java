@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.IOException;
+import java.io.Writer;
 
 public class GlobalLog implements Command {
 
@@ -9,7 +10,13 @@ public class GlobalLog implements Command {
         if (command.length != 0) {
             throw new GitletException("Incorrect # of args");
         }
-        s.globalLog();
+        Writer out = Main.openStdout();
+        try {
+            s.printAll(out, true, Integer.MAX_VALUE, null, null);
+            out.flush();
+        } catch (IOException excp) {
+            /* The reader of the output has gone away. */
+        }
         return 0;
     }
 }
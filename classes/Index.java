@@ -0,0 +1,312 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** The staging area.  The index holds, for every file that will be in the
+ *  next commit, the id of its blob together with the size, modification
+ *  time and inode the working file had when it was last hashed.  A working
+ *  file whose stat still matches its entry is known to be unchanged
+ *  without reading it.
+ *  @author Avery Bong
+ */
+public class Index {
+
+    /** An empty index. */
+    public Index() {
+        _entries = new TreeMap<>();
+        _stamp = Long.MIN_VALUE;
+    }
+
+    /** A single staged file. */
+    static class Entry {
+
+        /** An entry for the blob BLOB whose working copy had stat STAT,
+         *  or no known stat if STAT is null. */
+        Entry(String blob, long[] stat) {
+            _blob = blob;
+            if (stat != null) {
+                _size = stat[0];
+                _mtime = stat[1];
+                _inode = stat[2];
+            }
+        }
+
+        /** The id of the staged blob. */
+        protected String _blob;
+
+        /** Size in bytes of the working file when it was hashed. */
+        protected long _size = -1;
+
+        /** Modification time, in nanoseconds, of the working file when it
+         *  was hashed. */
+        protected long _mtime = -1;
+
+        /** Inode of the working file when it was hashed, or 0. */
+        protected long _inode;
+    }
+
+    /** @return the index stored in LOC, or an empty index if LOC does not
+     *  exist. */
+    public static Index read(File loc) {
+        Index res = new Index();
+        if (!loc.isFile()) {
+            return res;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(loc.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                throw new GitletException("Corrupt index.");
+            }
+            int n = in.readInt();
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            for (int i = 0; i < n; i += 1) {
+                String name = in.readUTF();
+                in.readFully(id);
+                Entry e = new Entry(Utils.toHex(id), null);
+                e._size = in.readLong();
+                e._mtime = in.readLong();
+                e._inode = in.readLong();
+                res._entries.put(name, e);
+            }
+            res._stamp = Files.getLastModifiedTime(loc.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new GitletException("Corrupt index.");
+        }
+        return res;
+    }
+
+    /** Write this index to LOC if it has changed since it was read. */
+    public void write(File loc) {
+        if (!_changed) {
+            return;
+        }
+        File tmp = new File(loc.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                Entry v = e.getValue();
+                out.writeUTF(e.getKey());
+                out.write(Utils.fromHex(v._blob));
+                out.writeLong(v._size);
+                out.writeLong(v._mtime);
+                out.writeLong(v._inode);
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Could not write index.");
+        }
+        try {
+            Files.move(tmp.toPath(), loc.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            _stamp = Files.getLastModifiedTime(loc.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new GitletException("Could not write index.");
+        }
+        _changed = false;
+    }
+
+    /** Start recording changes to this index, so that rollback can undo
+     *  them.  Only the entries that change are recorded, each the first
+     *  time it does, with what it was before; entries are never changed in
+     *  place. */
+    public void mark() {
+        _undo = new HashMap<>();
+        _undoChanged = _changed;
+    }
+
+    /** Undo the changes made to this index since mark was last called. */
+    public void rollback() {
+        if (_undo == null) {
+            return;
+        }
+        for (Map.Entry<String, Entry> e : _undo.entrySet()) {
+            if (e.getValue() == null) {
+                _entries.remove(e.getKey());
+            } else {
+                _entries.put(e.getKey(), e.getValue());
+            }
+        }
+        _changed = _undoChanged;
+        _undo = null;
+    }
+
+    /** Make E the entry of NAME, or remove NAME if E is null, recording
+     *  the old entry if changes are being recorded. */
+    private void set(String name, Entry e) {
+        Entry old = e == null ? _entries.remove(name) : _entries.put(name, e);
+        if (_undo != null && !_undo.containsKey(name)) {
+            _undo.put(name, old);
+        }
+        _changed = true;
+    }
+
+    /** @return the staged blob id of NAME, or null if it is not staged. */
+    public String blob(String name) {
+        Entry e = _entries.get(name);
+        return e == null ? null : e._blob;
+    }
+
+    /** @return true iff NAME is in this index. */
+    public boolean contains(String name) {
+        return _entries.containsKey(name);
+    }
+
+    /** @return true iff some file under the directory with path DIR is in
+     *  this index. */
+    public boolean containsUnder(String dir) {
+        String first = _entries.ceilingKey(dir + "/");
+        return first != null && first.startsWith(dir + "/");
+    }
+
+    /** Stage the blob BLOB as the contents of the working file F. */
+    public void put(File f, String blob) {
+        set(Main.path(f), new Entry(blob, stat(f)));
+    }
+
+    /** Remove NAME from this index. */
+    public void remove(String name) {
+        if (_entries.containsKey(name)) {
+            set(name, null);
+        }
+    }
+
+    /** Replace the contents of this index with FILES, a map of file names
+     *  to blob ids.  Entries whose blob is unchanged keep their stat; no
+     *  stat is known for the others, so their working copies are hashed
+     *  the next time they are looked at. */
+    public void reset(Map<String, String> files) {
+        for (String name : new ArrayList<>(_entries.keySet())) {
+            if (!files.containsKey(name)) {
+                set(name, null);
+            }
+        }
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            Entry prev = _entries.get(e.getKey());
+            if (prev == null || !prev._blob.equals(e.getValue())) {
+                set(e.getKey(), new Entry(e.getValue(), null));
+            }
+        }
+        _changed = true;
+    }
+
+    /** @return the names of all staged files mapped to their blob ids, in
+     *  order of name. */
+    public Map<String, String> files() {
+        Map<String, String> res = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            res.put(e.getKey(), e.getValue()._blob);
+        }
+        return res;
+    }
+
+    /** @return the blob ids of the working files FILES, each staged under
+     *  its path, in the same order.  A file is only read and hashed if its
+     *  size, modification time or inode differ from those recorded, in
+     *  which case they are updated if its contents turn out to be
+     *  unchanged.  The files are checked and hashed in parallel. */
+    public List<String> hashOf(List<File> files) throws IOException {
+        List<long[]> stats = Parallel.map(files, Index::stat);
+        List<Integer> stale = new ArrayList<>();
+        for (int i = 0; i < files.size(); i += 1) {
+            if (!unchanged(files.get(i), stats.get(i))) {
+                stale.add(i);
+            }
+        }
+        List<String> hashes = Parallel.map(stale,
+            i -> Main.hashOf(files.get(i)));
+        List<String> res = new ArrayList<>();
+        for (File f : files) {
+            res.add(_entries.get(Main.path(f))._blob);
+        }
+        for (int j = 0; j < stale.size(); j += 1) {
+            int i = stale.get(j);
+            String name = Main.path(files.get(i));
+            long[] st = stats.get(i);
+            res.set(i, hashes.get(j));
+            if (hashes.get(j).equals(_entries.get(name)._blob)
+                    && st != null) {
+                set(name, new Entry(hashes.get(j), st));
+            }
+        }
+        return res;
+    }
+
+    /** @return true iff F is staged and its stat ST matches its entry
+     *  closely enough to trust that its contents are unchanged. */
+    boolean unchanged(File f, long[] st) {
+        Entry e = _entries.get(Main.path(f));
+        return e != null && st != null && st[0] == e._size
+            && st[1] == e._mtime && st[2] == e._inode && e._mtime < _stamp;
+    }
+
+    /** @return the size, modification time in nanoseconds and inode of F,
+     *  or null if F cannot be read. */
+    static long[] stat(File f) {
+        Path p = f.toPath();
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(p, BasicFileAttributes.class);
+            Instant t = attrs.lastModifiedTime().toInstant();
+            long inode;
+            try {
+                inode = ((Number) Files.getAttribute(p, "unix:ino"))
+                        .longValue();
+            } catch (UnsupportedOperationException
+                    | IllegalArgumentException excp) {
+                inode = 0;
+            }
+            return new long[] {
+                attrs.size(), t.getEpochSecond() * NANOS + t.getNano(), inode
+            };
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Entries indexed by file path. */
+    private final TreeMap<String, Entry> _entries;
+
+    /** Modification time of the index file when it was last read or
+     *  written.  Entries modified at or after this time may have been
+     *  changed again within the timestamp resolution, so their stat is not
+     *  trusted. */
+    private long _stamp;
+
+    /** True iff this index differs from its file. */
+    private boolean _changed;
+
+    /** The entries changed since mark was called, mapped to what they
+     *  were then, or to null if they were not in this index; null if
+     *  changes are not being recorded. */
+    private HashMap<String, Entry> _undo;
+
+    /** The value of _changed when mark was called. */
+    private boolean _undoChanged;
+
+    /** Marks an index file. */
+    private static final int MAGIC = 0x474c4958;
+
+    /** Nanoseconds per second. */
+    private static final long NANOS = 1_000_000_000L;
+}
@@ -1,5 +1,13 @@
 package gitlet;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
 /** Driver class for Log.
  *  @author Avery Bong
  */
@@ -7,10 +15,70 @@ public class Log implements Command {
 
     @Override
     public int run(Git s, String[] command) {
-        if (command.length != 0) {
-            throw new GitletException("Incorrect # of args");
+        int limit = Integer.MAX_VALUE;
+        ZonedDateTime since = null, until = null;
+        boolean all = false;
+        for (int i = 0; i < command.length; i += 2) {
+            if (command[i].equals("--all")) {
+                all = true;
+                i -= 1;
+                continue;
+            } else if (i + 1 == command.length) {
+                throw new GitletException("Incorrect # of args");
+            }
+            switch (command[i]) {
+            case "-n":
+                try {
+                    limit = Integer.parseInt(command[i + 1]);
+                } catch (NumberFormatException excp) {
+                    Main.error("Invalid count.");
+                }
+                break;
+            case "--since":
+                since = parseDate(command[i + 1], false);
+                break;
+            case "--until":
+                until = parseDate(command[i + 1], true);
+                break;
+            default:
+                throw new GitletException("Incorrect # of args");
+            }
+        }
+        Writer out = Main.openStdout();
+        try {
+            if (all) {
+                s.printAll(out, false, limit, since, until);
+            } else {
+                s.printLog(out, limit, since, until);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            /* The reader of the output has gone away. */
         }
-        s.printLog();
         return 0;
     }
+
+    /** @return the time given by DATE, either an ISO date and time with or
+     *  without a zone, or an ISO date alone, which means the start of that
+     *  day, or its end if END. */
+    static ZonedDateTime parseDate(String date, boolean end) {
+        try {
+            return ZonedDateTime.parse(date);
+        } catch (DateTimeParseException excp) {
+            try {
+                return LocalDateTime.parse(date).atZone(ZoneId.systemDefault());
+            } catch (DateTimeParseException excp2) {
+                try {
+                    LocalDate day = LocalDate.parse(date);
+                    return end
+                        ? day.plusDays(1).atStartOfDay(ZoneId.systemDefault())
+                            .minusNanos(1)
+                        : day.atStartOfDay(ZoneId.systemDefault());
+                } catch (DateTimeParseException excp3) {
+                    Main.error("Invalid date.");
+                    return null;
+                }
+            }
+        }
+    }
 }
@@ -1,13 +1,32 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.zip.DeflaterOutputStream;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Avery Bong
@@ -15,9 +34,31 @@ import java.util.function.Supplier;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> ....  The command is sent to the daemon if one
+     *  is serving this repository, exiting with the status it gives, and
+     *  otherwise run here. */
     public static void main(String... args) throws IOException {
-        Git s;
+        if (args.length > 0 && args[0].equals(Daemon.COMMAND)) {
+            Daemon.serve(args);
+        } else if (args.length > 0 && args[0].equals(Batch.COMMAND)) {
+            Batch.run(args);
+        } else {
+            int status = args.length == 0 ? Daemon.NONE : Daemon.forward(args);
+            if (status == Daemon.NONE) {
+                try {
+                    execute(load(args), args);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                }
+            } else if (status != 0) {
+                System.exit(status);
+            }
+        }
+    }
+
+    /** @return the system the command ARGS runs on: a new one for init,
+     *  and otherwise the one stored in the current directory. */
+    static Git load(String... args) {
         if (args.length == 0) {
             Main.error("Please enter a command.");
         }
@@ -26,14 +67,24 @@ public class Main {
                 Main.error("Not in an initialized Gitlet directory.");
             }
             STORAGE.mkdir();
-            s = new Git();
+            return new Git(STORAGE);
         } else {
             if (args[0].equals("init")) {
                 Main.error("A Gitlet version-control system "
                         + "already exists in the current directory.");
             }
-            s = readSystem(STORAGE);
+            return readSystem(STORAGE);
         }
+    }
+
+    /** Run the command ARGS on S and save S. */
+    static void execute(Git s, String... args) throws IOException {
+        perform(s, args);
+        save(SYSTEM, s);
+    }
+
+    /** Run the command ARGS on S without saving S. */
+    static void perform(Git s, String... args) throws IOException {
         Supplier<Command> supplier = COMMANDS.get(args[0]);
         if (supplier == null) {
             Main.error("No command with that name exists.");
@@ -42,44 +93,192 @@ public class Main {
         command.run(s, args.length < 1
                 ? new String[]{}
                 : Arrays.copyOfRange(args, 1, args.length));
-        save(SYSTEM, s);
+        if (AUTO_GC.contains(args[0])) {
+            s.autoGc();
+        }
     }
 
-    /** @return the stored Git system if exists.
+    /** @return the stored Git system if exists.  Only the branch heads
+     * and staging area are read here; commits are read as they are used.
+     * A repository made by the original Gitlet is converted first.
      * @param loc */
     public static Git readSystem(File loc) {
         if (!loc.exists()) {
             error("Remote directory not found.");
         }
         File sysLoc = Utils.join(loc, "system");
-        return Utils.readObject(sysLoc, Git.class);
+        if (Upgrade.needed(sysLoc)) {
+            Upgrade.convert(loc);
+        }
+        Git s = Utils.readObject(sysLoc, Git.class);
+        s.attach(loc);
+        return s;
     }
 
     /** Saves the stored Git S to LOC. */
     public static void save(File loc, Git s) {
         Utils.writeObject(loc, s);
+        s.saveIndex();
     }
 
-    /** Throw an error with the MESSAGE and exit. */
+    /** Abandon the current command with the error MESSAGE, which main
+     *  prints. */
     public static void error(String message) {
-        System.out.println(message);
-        System.exit(0);
+        throw new GitletException(message);
+    }
+
+    /** @return a buffered writer on standard output.  Unlike System.out,
+     *  it throws an IOException once the reader has gone away, such as
+     *  when output piped to head is no longer wanted.  Callers must flush
+     *  it. */
+    public static Writer openStdout() {
+        return new BufferedWriter(new OutputStreamWriter(_out), OUT_BUFFER);
     }
 
-    /** Backup and return a file F. */
-    public static File backup(File f) {
-        String contents = Utils.readContentsAsString(f);
-        String hash = Utils.sha1(contents);
-        File backupLoc = Utils.join(STORAGE, hash);
-        if (!backupLoc.exists()) {
-            Utils.writeContents(backupLoc, contents);
+    /** Backup a file F and return the id of its blob.  F is hashed as it
+     *  is deflated into a temporary file in the store, which is then
+     *  renamed to its place under the objects folder, so files of any size
+     *  and encoding are stored exactly. */
+    public static String backup(File f) {
+        try {
+            File tmp = File.createTempFile("blob", null, STORAGE);
+            MessageDigest md = Utils.sha1Digest();
+            try (InputStream in = new DigestInputStream(
+                    Files.newInputStream(f.toPath()), md);
+                 OutputStream out = new DeflaterOutputStream(
+                         Files.newOutputStream(tmp.toPath()))) {
+                in.transferTo(out);
+            }
+            String hash = Utils.toHex(md.digest());
+            getStore().addLoose(tmp, hash);
+            return hash;
+        } catch (IOException excp) {
+            throw Utils.error("Could not back up %s.", f.getName());
+        }
+    }
+
+    /** @return the blob id F would be backed up under, without storing
+     *  it. */
+    public static String hashOf(File f) {
+        MessageDigest md = Utils.sha1Digest();
+        try (InputStream in = new DigestInputStream(
+                Files.newInputStream(f.toPath()), md)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException excp) {
+            throw Utils.error("Could not read %s.", f.getName());
+        }
+        return Utils.toHex(md.digest());
+    }
+
+    /** @return a stream of the original contents of the blob with id
+     *  HASH, whether it is loose or packed. Can throw IOException. */
+    public static InputStream openBlob(String hash) throws IOException {
+        return getStore().open(hash);
+    }
+
+    /** Copy the contents of the blob with id HASH to DST, making the
+     *  directories above it if needed. Can throw
+     *  IOException. */
+    public static void exportFile(String hash, File dst) throws IOException {
+        File dir = dst.getParentFile();
+        if (dir != null) {
+            Files.createDirectories(dir.toPath());
+        }
+        try (InputStream in = openBlob(hash)) {
+            Files.copy(in, dst.toPath(), COPY);
+        }
+    }
+
+    /** Delete the working file F, and then each directory above it that
+     *  this leaves empty. */
+    public static void deleteFile(File f) {
+        f.delete();
+        for (Path dir = f.toPath().toAbsolutePath().normalize().getParent();
+             dir != null && !dir.equals(TOP) && dir.startsWith(TOP);
+             dir = dir.getParent()) {
+            if (!dir.toFile().delete()) {
+                break;
+            }
         }
-        return backupLoc;
     }
 
-    /** Copy the contents of HASHED to DST. Can throw IOException. */
-    public static void exportFile(File hashed, File dst) throws IOException {
-        Files.copy(hashed.toPath(), dst.toPath(), COPY);
+    /** @return the path of F from the top of the working directory, with
+     *  '/' between its parts, as files are named in commits. */
+    public static String path(File f) {
+        return TOP.relativize(f.toPath().toAbsolutePath().normalize())
+            .toString().replace(File.separatorChar, '/');
+    }
+
+    /** @return the files under the directory DIR, in no particular order,
+     *  leaving out hidden files and directories such as .gitlet.  A
+     *  directory below DIR for which ENTER is false is listed itself
+     *  instead of the files under it, if there are any. */
+    public static List<File> workingFiles(File dir, Predicate<File> enter)
+            throws IOException {
+        List<File> res = new ArrayList<>();
+        Path start = dir.toPath();
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d,
+                    BasicFileAttributes attrs) throws IOException {
+                if (d.equals(start)) {
+                    return FileVisitResult.CONTINUE;
+                } else if (d.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                } else if (!enter.test(d.toFile())) {
+                    if (!workingFiles(d.toFile(), f -> false).isEmpty()) {
+                        res.add(d.toFile());
+                    }
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path f,
+                    BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()
+                        && !f.getFileName().toString().startsWith(".")) {
+                    res.add(f.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path f, IOException excp) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return res;
+    }
+
+    /** Copy the commits with ids COMMITS and the blobs and trees with ids
+     *  OBJECTS from the .gitlet folder SRC to the .gitlet folder DST,
+     *  skipping those DST already has.  Objects are named by their
+     *  contents, so existing ones never need replacing.  The blobs are
+     *  sent as packs rather than one file each, with later versions of a
+     *  file stored as deltas from the earlier ones given by BASES.  The
+     *  objects of this repository are read and written through getStore,
+     *  so that it sees the packs written here.
+     *  @return the ids of the commits copied. */
+    public static List<String> copyStorage(File src, File dst,
+                                           List<String> commits,
+                                           Collection<String> objects,
+                                           Map<String, String> bases)
+            throws IOException {
+        List<String> copied = new ArrayList<>();
+        File to = Utils.join(dst, Git.COMMITS);
+        to.mkdirs();
+        for (String id : commits) {
+            File dstFile = Utils.join(to, id);
+            if (!dstFile.exists()) {
+                Files.copy(Utils.join(src, Git.COMMITS, id).toPath(),
+                        dstFile.toPath(), COPY);
+                copied.add(id);
+            }
+        }
+        getStore(dst).transfer(getStore(src), objects, bases);
+        return copied;
     }
 
     /** Map of commands to classes. */
@@ -102,8 +301,15 @@ public class Main {
             put("fetch", Fetch::new);
             put("push", Push::new);
             put("pull", Pull::new);
+            put("gc", Gc::new);
+            put("diff", DiffCommand::new);
         }};
 
+    /** Commands that add blobs, after which loose blobs are packed if
+     *  there are too many. */
+    static final Set<String> AUTO_GC =
+            Set.of("commit", "merge", "fetch", "pull");
+
     /** Return CWD. */
     public static File getCwd() {
         return CWD;
@@ -112,6 +318,9 @@ public class Main {
     /** Return CWD. */
     private static final File CWD = new File(".");
 
+    /** The absolute path of CWD, from which paths in commits start. */
+    private static final Path TOP = CWD.toPath().toAbsolutePath().normalize();
+
     /** Return STORE. */
     public static File getStorageFolder() {
         return STORAGE;
@@ -120,9 +329,49 @@ public class Main {
     /** Return STORE. */
     private static final File STORAGE = Utils.join(CWD, "/.gitlet");
 
+    /** Return the blobs of this repository. */
+    public static synchronized Store getStore() {
+        if (_store == null) {
+            _store = new Store(STORAGE);
+        }
+        return _store;
+    }
+
+    /** Return the blobs of the .gitlet folder STORAGE, which are those
+     *  of getStore if it is this repository's. */
+    static Store getStore(File storage) {
+        return storage.equals(STORAGE) ? getStore() : new Store(storage);
+    }
+
+    /** The blobs of this repository, or null until first used. */
+    private static Store _store;
+
     /** Return SYSTEM. */
     private static final File SYSTEM = Utils.join(STORAGE, "/system");
 
+    /** Return SYSTEM. */
+    static File getSystemFile() {
+        return SYSTEM;
+    }
+
+    /** Forget the cached store, whose packs may have changed. */
+    static void resetStore() {
+        _store = null;
+    }
+
+    /** Send the output of openStdout to OUT, or back to standard output if
+     *  OUT is null. */
+    static void setStdout(OutputStream out) {
+        _out = out == null ? new FileOutputStream(FileDescriptor.out) : out;
+    }
+
+    /** Where openStdout writes. */
+    private static OutputStream _out =
+            new FileOutputStream(FileDescriptor.out);
+
+    /** Size of the buffer of openStdout. */
+    private static final int OUT_BUFFER = 1 << 16;
+
     /** COPY OPTION. */
     private static final StandardCopyOption COPY =
             StandardCopyOption.REPLACE_EXISTING;
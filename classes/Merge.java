@@ -8,7 +8,7 @@ import java.io.IOException;
 public class Merge implements Command {
     @Override
     public int run(Git s, String[] command) throws IOException {
-        if (s._stage.size() > 0 || s._removal.size() > 0) {
+        if (s.hasStagedChanges()) {
             Main.error("You have uncommitted changes.");
         }
         String branchName = command[0];
@@ -0,0 +1,270 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** An index of commit messages.  Each commit is recorded under a key for
+ *  its whole message, for exact searches, and under a key for every word
+ *  in its message, for word searches; a key is the SHA-1 of the message or
+ *  word, marked as one or the other.  Most records, each a 20-byte key
+ *  followed by a 20-byte commit id, are kept sorted by key in a
+ *  memory-mapped file, where the records of a key are found by binary
+ *  search.  Records of commits added since that file was last rewritten
+ *  are appended to a short second file, which is merged into the first
+ *  once it grows past MERGE_AT records.  A search thus reads only the
+ *  records of its keys and the short file, however long the history.
+ *  @author Avery Bong
+ */
+public class MessageIndex {
+
+    /** The message index of the .gitlet folder STORAGE, which is empty if
+     *  it has not been written yet. */
+    public MessageIndex(File storage) {
+        _storage = storage;
+        _sortedFile = Utils.join(storage, SORTED);
+        _recentFile = Utils.join(storage, RECENT);
+        load();
+    }
+
+    /** Read the index files. */
+    private void load() {
+        _sorted = null;
+        _size = 0;
+        if (_sortedFile.exists()) {
+            try (FileChannel ch = FileChannel.open(_sortedFile.toPath(),
+                    StandardOpenOption.READ)) {
+                _sorted = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw new GitletException("Could not read message index.");
+            }
+            _size = _sorted.getInt(0);
+        }
+        _recent = new ArrayList<>();
+        if (_recentFile.exists()) {
+            byte[] tail = Utils.readContents(_recentFile);
+            for (int i = 0; i + RECORD <= tail.length; i += RECORD) {
+                _recent.add(Arrays.copyOfRange(tail, i, i + RECORD));
+            }
+        }
+    }
+
+    /** Empty this index. */
+    public void clear() {
+        _sortedFile.delete();
+        _recentFile.delete();
+        load();
+    }
+
+    /** Record the commits in MESSAGES, which maps their ids to their
+     *  messages, in order. */
+    public void add(Map<String, String> messages) {
+        List<byte[]> fresh = new ArrayList<>();
+        for (Map.Entry<String, String> e : messages.entrySet()) {
+            byte[] id = Utils.fromHex(e.getKey());
+            fresh.add(record(messageKey(e.getValue()), id));
+            for (String w : words(e.getValue())) {
+                fresh.add(record(wordKey(w), id));
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        if (_recent.size() + fresh.size() > MERGE_AT) {
+            _recent.addAll(fresh);
+            rebuild();
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(_recentFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (byte[] r : fresh) {
+                out.write(r);
+            }
+        } catch (IOException excp) {
+            throw new GitletException("Could not write message index.");
+        }
+        _recent.addAll(fresh);
+    }
+
+    /** Rewrite the sorted file with the recent records merged into it.
+     *  Records with the same key stay in the order they were added. */
+    private void rebuild() {
+        List<byte[]> recent = new ArrayList<>(_recent);
+        recent.sort((x, y) -> Arrays.compareUnsigned(x, 0, KEY_BYTES,
+                y, 0, KEY_BYTES));
+        try {
+            File tmp = File.createTempFile("messages", null, _storage);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(_size + recent.size());
+                byte[] r = new byte[RECORD];
+                int k = 0;
+                for (byte[] next : recent) {
+                    while (k < _size && compare(k, next) <= 0) {
+                        _sorted.get(HEADER + k * RECORD, r);
+                        out.write(r);
+                        k += 1;
+                    }
+                    out.write(next);
+                }
+                for (; k < _size; k += 1) {
+                    _sorted.get(HEADER + k * RECORD, r);
+                    out.write(r);
+                }
+            }
+            Files.move(tmp.toPath(), _sortedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(_recentFile.toPath());
+        } catch (IOException excp) {
+            throw new GitletException("Could not write message index.");
+        }
+        load();
+    }
+
+    /** @return the ids of the commits whose message is exactly MESSAGE, in
+     *  the order they were added. */
+    public List<String> exact(String message) {
+        return new ArrayList<>(lookup(messageKey(message)));
+    }
+
+    /** @return the ids of the commits whose message contains every word of
+     *  TERM, ignoring case, in the order they were added. */
+    public List<String> grep(String term) {
+        Set<String> res = null;
+        for (String w : words(term)) {
+            Set<String> ids = lookup(wordKey(w));
+            if (res == null) {
+                res = ids;
+            } else {
+                res.retainAll(ids);
+            }
+        }
+        return res == null ? new ArrayList<>() : new ArrayList<>(res);
+    }
+
+    /** @return the distinct words of TEXT: its runs of letters and digits,
+     *  in lower case. */
+    static Set<String> words(String text) {
+        Set<String> res = new LinkedHashSet<>();
+        for (String w : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!w.isEmpty()) {
+                res.add(w);
+            }
+        }
+        return res;
+    }
+
+    /** @return the key of the whole message MESSAGE. */
+    private static byte[] messageKey(String message) {
+        return Utils.fromHex(Utils.sha1(MESSAGE_MARK, message));
+    }
+
+    /** @return the key of the word WORD. */
+    private static byte[] wordKey(String word) {
+        return Utils.fromHex(Utils.sha1(WORD_MARK, word));
+    }
+
+    /** @return the record of KEY and the binary commit id ID. */
+    private static byte[] record(byte[] key, byte[] id) {
+        byte[] res = Arrays.copyOf(key, RECORD);
+        System.arraycopy(id, 0, res, KEY_BYTES, id.length);
+        return res;
+    }
+
+    /** @return the ids recorded under KEY, in the order they were
+     *  added. */
+    private Set<String> lookup(byte[] key) {
+        Set<String> res = new LinkedHashSet<>();
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        byte[] id = new byte[RECORD - KEY_BYTES];
+        for (int k = lo; k < _size && compare(k, key) == 0; k += 1) {
+            _sorted.get(HEADER + k * RECORD + KEY_BYTES, id);
+            res.add(Utils.toHex(id));
+        }
+        for (byte[] r : _recent) {
+            if (Arrays.equals(r, 0, KEY_BYTES, key, 0, KEY_BYTES)) {
+                res.add(Utils.toHex(
+                        Arrays.copyOfRange(r, KEY_BYTES, RECORD)));
+            }
+        }
+        return res;
+    }
+
+    /** Compare the key of the Kth sorted record with the key at the start
+     *  of KEY. */
+    private int compare(int k, byte[] key) {
+        int base = HEADER + k * RECORD;
+        for (int i = 0; i < KEY_BYTES; i += 1) {
+            int c = Integer.compare(_sorted.get(base + i) & BYTE,
+                    key[i] & BYTE);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** The .gitlet folder. */
+    private final File _storage;
+
+    /** The sorted and recent record files. */
+    private final File _sortedFile, _recentFile;
+
+    /** The mapped sorted file, or null if there is none. */
+    private MappedByteBuffer _sorted;
+
+    /** The number of records in the sorted file. */
+    private int _size;
+
+    /** The records added since the sorted file was written. */
+    private List<byte[]> _recent;
+
+    /** Name of the sorted record file. */
+    static final String SORTED = "message-index";
+
+    /** Name of the recent record file. */
+    static final String RECENT = "message-index.new";
+
+    /** Number of recent records at which they are merged into the sorted
+     *  file. */
+    static final int MERGE_AT = 4096;
+
+    /** Marks the keys of whole messages and of words, so that a message
+     *  and a word never share a key. */
+    private static final String MESSAGE_MARK = "m", WORD_MARK = "w";
+
+    /** Bytes before the first sorted record. */
+    private static final int HEADER = 4;
+
+    /** Bytes in a key. */
+    private static final int KEY_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Bytes in a record. */
+    private static final int RECORD = 2 * KEY_BYTES;
+
+    /** Mask for an unsigned byte. */
+    private static final int BYTE = 0xff;
+}
@@ -0,0 +1,485 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A read-only pack of blobs.  A pack is two files: NAME.pack holds the
+ *  blobs one after another, each either deflated whole or as a deflated
+ *  delta from an earlier version in the same pack, and NAME.idx holds their ids in
+ *  sorted order, preceded by a table giving the number of ids less than or
+ *  equal to each first byte, and followed by the offset of each blob in
+ *  the pack.  Both are memory mapped, so finding and reading a blob costs
+ *  no system calls.
+ *  @author Avery Bong
+ */
+public class Pack {
+
+    /** The pack whose index file is IDX. */
+    public Pack(File idx) {
+        String name = idx.getName();
+        _idxFile = idx;
+        _packFile = new File(idx.getParentFile(),
+                name.substring(0, name.length() - IDX.length()) + PACK);
+        _idx = map(_idxFile);
+        _data = map(_packFile);
+        if (_idx.getInt(0) != IDX_MAGIC || _data.getInt(0) != PACK_MAGIC) {
+            throw new GitletException("Corrupt pack " + name + ".");
+        }
+        _size = _idx.getInt(4);
+    }
+
+    /** @return FILE mapped read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new GitletException("Could not read pack "
+                    + file.getName() + ".");
+        }
+    }
+
+    /** @return the number of blobs in this pack. */
+    public int size() {
+        return _size;
+    }
+
+    /** @return the id of the Kth blob in this pack, in sorted order. */
+    public String id(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _idx.get(IDS + k * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** @return the ids of all blobs in this pack, in sorted order. */
+    public List<String> ids() {
+        List<String> res = new ArrayList<>(_size);
+        for (int k = 0; k < _size; k += 1) {
+            res.add(id(k));
+        }
+        return res;
+    }
+
+    /** @return the position of the blob with id HASH in sorted order, or
+     *  -1 if it is not in this pack. */
+    public int find(String hash) {
+        byte[] id = Utils.fromHex(hash);
+        int first = id[0] & BYTE;
+        int lo = first == 0 ? 0 : _idx.getInt(FANOUT + 4 * (first - 1)),
+            hi = _idx.getInt(FANOUT + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, id);
+            if (c == 0) {
+                return mid;
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** @return true iff the blob with id HASH is in this pack. */
+    public boolean contains(String hash) {
+        return find(hash) >= 0;
+    }
+
+    /** Compare the Kth id in this pack with ID. */
+    private int compare(int k, byte[] id) {
+        int base = IDS + k * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int c = Integer.compare(_idx.get(base + i) & BYTE, id[i] & BYTE);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** @return the offset in the pack of the entry for the Kth blob. */
+    private int offset(int k) {
+        return (int) _idx.getLong(IDS + _size * ID_BYTES + k * Long.BYTES);
+    }
+
+    /** @return true iff the Kth blob is stored as a delta against another
+     *  blob in this pack. */
+    public boolean isDelta(int k) {
+        return _data.get(offset(k)) == DELTA;
+    }
+
+    /** @return the stored data of the Kth blob, as a read-only view of the
+     *  mapped pack: its deflated contents, or its deflated delta. */
+    private ByteBuffer raw(int k) {
+        int off = offset(k);
+        int len = (int) _data.getLong(off + 1);
+        int start = off + ENTRY_HEADER + (isDelta(k) ? ID_BYTES : 0);
+        return _data.slice(start, len);
+    }
+
+    /** @return the id of the base of the Kth blob, which is a delta. */
+    private String base(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _data.get(offset(k) + ENTRY_HEADER, id);
+        return Utils.toHex(id);
+    }
+
+    /** @return a stream of the contents of the Kth blob. */
+    public InputStream open(int k) throws IOException {
+        if (isDelta(k)) {
+            return new ByteArrayInputStream(read(k));
+        }
+        return new InflaterInputStream(new BufferInputStream(raw(k)));
+    }
+
+    /** @return the contents of the Kth blob.  Deltas are applied to their
+     *  bases, which are themselves read the same way; the most recently
+     *  built blobs are kept, since successive versions share bases. */
+    public byte[] read(int k) throws IOException {
+        if (!isDelta(k)) {
+            try (InputStream in = open(k)) {
+                return in.readAllBytes();
+            }
+        }
+        synchronized (_recent) {
+            byte[] res = _recent.get(k);
+            if (res != null) {
+                return res;
+            }
+        }
+        byte[] delta;
+        try (InputStream in = new InflaterInputStream(
+                new BufferInputStream(raw(k)))) {
+            delta = in.readAllBytes();
+        }
+        byte[] res = Delta.apply(read(find(base(k))), delta);
+        synchronized (_recent) {
+            _recent.put(k, res);
+        }
+        return res;
+    }
+
+    /** @return the length of the stored data of the Kth blob. */
+    public long rawLength(int k) {
+        return raw(k).remaining();
+    }
+
+    /** Write the deflated contents of the Kth blob, which must not be a
+     *  delta, to OUT. */
+    public void copyRaw(int k, OutputStream out) throws IOException {
+        ByteBuffer buf = raw(k);
+        byte[] chunk = new byte[COPY_CHUNK];
+        while (buf.hasRemaining()) {
+            int n = Math.min(chunk.length, buf.remaining());
+            buf.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /** @return the pack file. */
+    public File packFile() {
+        return _packFile;
+    }
+
+    /** @return the index file. */
+    public File idxFile() {
+        return _idxFile;
+    }
+
+    /** Write the blobs with ids IDS, all of which are in FROM, as one or
+     *  more new packs in the folder DIR, none larger than MAX_PACK_SIZE.
+     *  IDS must be sorted and must not contain blobs of MAX_PACK_SIZE or
+     *  more.  BASES maps a blob to an earlier version of the same file,
+     *  which it is stored as a delta against when both are in the same
+     *  pack and that is smaller.  Returns the index files of the packs. */
+    static List<File> write(File dir, List<String> ids, Store from,
+                            Map<String, String> bases) throws IOException {
+        dir.mkdirs();
+        List<File> res = new ArrayList<>();
+        int start = 0;
+        while (start < ids.size()) {
+            long total = HEADER;
+            int end = start;
+            while (end < ids.size()) {
+                long len = ENTRY_HEADER + from.rawLength(ids.get(end));
+                if (end > start && total + len > MAX_PACK_SIZE) {
+                    break;
+                }
+                total += len;
+                end += 1;
+            }
+            res.add(writeOne(dir, ids.subList(start, end), from, bases));
+            start = end;
+        }
+        return res;
+    }
+
+    /** Write the blobs with sorted ids IDS in FROM as a single pack in
+     *  DIR, using BASES as for write, and return its index file. */
+    private static File writeOne(File dir, List<String> ids, Store from,
+                                 Map<String, String> bases)
+            throws IOException {
+        String name = "pack-" + Utils.sha1(String.join("", ids));
+        File pack = new File(dir, name + PACK), idx = new File(dir, name + IDX);
+        if (idx.exists()) {
+            return idx;
+        }
+        long[] offsets = new long[ids.size()];
+        File tmp = File.createTempFile("pack", null, dir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(ids.size());
+            Set<String> inPack = new HashSet<>(ids);
+            Map<String, Integer> depth = new HashMap<>();
+            Map<String, byte[]> recent = new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, byte[]> e) {
+                    return size() > RECENT;
+                }
+            };
+            for (String id : chainOrder(ids, bases, inPack)) {
+                offsets[Collections.binarySearch(ids, id)] = out.size();
+                String base = bases.get(id);
+                byte[] full = null, delta = null;
+                if (!from.isFull(id)) {
+                    full = deflate(read(from, id, recent));
+                }
+                long fullLength = full == null ? from.rawLength(id)
+                    : full.length;
+                if (base != null && inPack.contains(base)
+                        && depth.getOrDefault(base, MAX_DEPTH) < MAX_DEPTH
+                        && from.rawLength(id) <= DELTA_LIMIT
+                        && from.rawLength(base) <= DELTA_LIMIT) {
+                    delta = deflate(Delta.create(read(from, base, recent),
+                            read(from, id, recent)));
+                    if (delta.length >= fullLength) {
+                        delta = null;
+                    }
+                }
+                if (delta != null) {
+                    depth.put(id, depth.get(base) + 1);
+                    out.writeByte(DELTA);
+                    out.writeLong(delta.length);
+                    out.write(Utils.fromHex(base));
+                    out.write(delta);
+                } else {
+                    depth.put(id, 0);
+                    out.writeByte(FULL);
+                    out.writeLong(fullLength);
+                    if (full == null) {
+                        from.copyRaw(id, out);
+                    } else {
+                        out.write(full);
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), pack.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+
+        tmp = File.createTempFile("idx", null, dir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(ids.size());
+            int[] fanout = new int[FANOUT_SIZE];
+            for (String id : ids) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int count = 0;
+            for (int f : fanout) {
+                count += f;
+                out.writeInt(count);
+            }
+            for (String id : ids) {
+                out.write(Utils.fromHex(id));
+            }
+            for (long off : offsets) {
+                out.writeLong(off);
+            }
+        }
+        Files.move(tmp.toPath(), idx.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        return idx;
+    }
+
+    /** @return IDS ordered so that every blob comes after the blob BASES
+     *  gives as its base, if that is in INPACK. */
+    private static List<String> chainOrder(List<String> ids,
+                                           Map<String, String> bases,
+                                           Set<String> inPack) {
+        List<String> order = new ArrayList<>(ids.size());
+        Set<String> done = new HashSet<>();
+        ArrayDeque<String> chain = new ArrayDeque<>();
+        for (String id : ids) {
+            for (String c = id; c != null && inPack.contains(c)
+                     && done.add(c); c = bases.get(c)) {
+                chain.push(c);
+            }
+            while (!chain.isEmpty()) {
+                order.add(chain.pop());
+            }
+        }
+        return order;
+    }
+
+    /** @return the contents of the blob HASH in FROM, remembering the
+     *  last few read in RECENT. */
+    private static byte[] read(Store from, String hash,
+                               Map<String, byte[]> recent)
+            throws IOException {
+        byte[] res = recent.get(hash);
+        if (res == null) {
+            res = from.read(hash);
+            recent.put(hash, res);
+        }
+        return res;
+    }
+
+    /** @return DATA deflated. */
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(res)) {
+            out.write(data);
+        }
+        return res.toByteArray();
+    }
+
+    /** An input stream reading the remaining bytes of a buffer. */
+    private static class BufferInputStream extends InputStream {
+
+        /** A stream of the remaining bytes of BUF. */
+        BufferInputStream(ByteBuffer buf) {
+            _buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return _buf.hasRemaining() ? _buf.get() & BYTE : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!_buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, _buf.remaining());
+            _buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return _buf.remaining();
+        }
+
+        /** The bytes left to read. */
+        private final ByteBuffer _buf;
+    }
+
+    /** The mapped index. */
+    private final MappedByteBuffer _idx;
+
+    /** The mapped pack. */
+    private final MappedByteBuffer _data;
+
+    /** The index and pack files. */
+    private final File _idxFile, _packFile;
+
+    /** The number of blobs in this pack. */
+    private final int _size;
+
+    /** The most recently read deltified blobs, by position. */
+    private final Map<Integer, byte[]> _recent = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> e) {
+            return size() > RECENT;
+        }
+    };
+
+    /** Suffix of index files. */
+    static final String IDX = ".idx";
+
+    /** Suffix of pack files. */
+    static final String PACK = ".pack";
+
+    /** Packs are split so that none is larger than this, which also keeps
+     *  them small enough to map whole. */
+    static final long MAX_PACK_SIZE = 1L << 30;
+
+    /** Marks a pack file. */
+    private static final int PACK_MAGIC = 0x474c504b;
+
+    /** Marks an index file. */
+    private static final int IDX_MAGIC = 0x474c5049;
+
+    /** Type of an entry holding a whole deflated blob. */
+    private static final int FULL = 0;
+
+    /** Type of an entry holding the id of a base blob in the same pack and
+     *  a deflated delta from it. */
+    private static final int DELTA = 1;
+
+    /** Longest chain of deltas a blob may be at the end of, so that reading
+     *  it never applies more than this many. */
+    static final int MAX_DEPTH = 10;
+
+    /** Blobs whose stored form is larger than this are never deltified,
+     *  so that deltas are always built in memory. */
+    static final long DELTA_LIMIT = 1L << 22;
+
+    /** Number of recently built blobs kept. */
+    private static final int RECENT = 16;
+
+    /** Bytes before the first entry of a pack. */
+    private static final int HEADER = 8;
+
+    /** Bytes before the data of each pack entry: its type and length. */
+    private static final int ENTRY_HEADER = 9;
+
+    /** Position of the first-byte table in an index. */
+    private static final int FANOUT = 8;
+
+    /** Entries in the first-byte table. */
+    private static final int FANOUT_SIZE = 256;
+
+    /** Position of the sorted ids in an index. */
+    private static final int IDS = FANOUT + 4 * FANOUT_SIZE;
+
+    /** Bytes in a binary id. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Mask for an unsigned byte. */
+    private static final int BYTE = 0xff;
+
+    /** Bytes copied at a time out of a pack. */
+    private static final int COPY_CHUNK = 1 << 16;
+}
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Pack, through the Store that holds it.
+ *  @author Avery Bong
+ */
+public class PackTest {
+
+    @Before
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("packtest").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(_dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                .forEach(File::delete);
+        }
+    }
+
+    /** @return successive versions of a file, each the last with one byte
+     *  changed, N in all. */
+    private static List<byte[]> versions(int n) {
+        Random r = new Random(5);
+        List<byte[]> res = new ArrayList<>();
+        byte[] data = new byte[4096];
+        r.nextBytes(data);
+        for (int i = 0; i < n; i += 1) {
+            data = data.clone();
+            data[r.nextInt(data.length)] += 1;
+            res.add(data);
+        }
+        return res;
+    }
+
+    /** @return the contents of HASH in STORE, read as a stream. */
+    private static byte[] stream(Store store, String hash)
+            throws IOException {
+        try (InputStream in = store.open(hash)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        Store store = new Store(_dir);
+        List<byte[]> contents = new ArrayList<>();
+        contents.add(new byte[0]);
+        contents.add("hello\n".getBytes());
+        contents.addAll(versions(3));
+        List<String> ids = new ArrayList<>();
+        for (byte[] c : contents) {
+            ids.add(store.add(c));
+        }
+        store.repack(new HashMap<>());
+        assertTrue(store.looseIds().isEmpty());
+        Store fresh = new Store(_dir);
+        assertEquals(1, fresh.packs().size());
+        for (int i = 0; i < ids.size(); i += 1) {
+            assertTrue(fresh.contains(ids.get(i)));
+            assertArrayEquals(contents.get(i), fresh.read(ids.get(i)));
+            assertArrayEquals(contents.get(i), stream(fresh, ids.get(i)));
+        }
+        assertFalse(fresh.contains(Utils.sha1("absent")));
+    }
+
+    @Test
+    public void maxDepthTest() throws IOException {
+        Store store = new Store(_dir);
+        List<byte[]> contents = versions(2 * Pack.MAX_DEPTH + 3);
+        List<String> ids = new ArrayList<>();
+        Map<String, String> bases = new HashMap<>();
+        for (byte[] c : contents) {
+            String id = store.add(c);
+            if (!ids.isEmpty()) {
+                bases.put(id, ids.get(ids.size() - 1));
+            }
+            ids.add(id);
+        }
+        store.repack(bases);
+        Store fresh = new Store(_dir);
+        int depth = 0, deepest = 0;
+        for (int i = 0; i < ids.size(); i += 1) {
+            String id = ids.get(i);
+            depth = fresh.isFull(id) ? 0 : depth + 1;
+            deepest = Math.max(deepest, depth);
+            assertArrayEquals(contents.get(i), fresh.read(id));
+            assertArrayEquals(contents.get(i), stream(fresh, id));
+        }
+        assertEquals(Pack.MAX_DEPTH, deepest);
+        assertTrue(fresh.isFull(ids.get(Pack.MAX_DEPTH + 1)));
+        assertFalse(fresh.isFull(ids.get(Pack.MAX_DEPTH)));
+    }
+
+    @Test
+    public void reverseReadTest() throws IOException {
+        Store store = new Store(_dir);
+        List<byte[]> contents = versions(Pack.MAX_DEPTH + 1);
+        List<String> ids = new ArrayList<>();
+        Map<String, String> bases = new HashMap<>();
+        for (byte[] c : contents) {
+            String id = store.add(c);
+            if (!ids.isEmpty()) {
+                bases.put(id, ids.get(ids.size() - 1));
+            }
+            ids.add(id);
+        }
+        store.repack(bases);
+        Store fresh = new Store(_dir);
+        for (int i = ids.size() - 1; i >= 0; i -= 1) {
+            assertArrayEquals(contents.get(i), fresh.read(ids.get(i)));
+        }
+    }
+
+    /** The .gitlet folder the store is in. */
+    private File _dir;
+}
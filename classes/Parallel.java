@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/** Runs independent pieces of work on files across all cores.  At most
+ *  IO_LIMIT pieces run at once, so that a large working tree does not
+ *  have more files open than the disk can usefully serve.  Results always
+ *  come back in the order of the work, so output built from them does not
+ *  depend on scheduling.
+ *  @author Avery Bong
+ */
+class Parallel {
+
+    /** A piece of work on a T that produces an R and may fail with an
+     *  IOException. */
+    interface Work<T, R> {
+        /** @return the result of this work on ITEM. */
+        R apply(T item) throws IOException;
+    }
+
+    /** @return the results of WORK on each of ITEMS, in the order of ITEMS,
+     *  computed in parallel.  An exception thrown by any piece is thrown
+     *  here. */
+    static <T, R> List<R> map(List<T> items, Work<T, R> work)
+            throws IOException {
+        if (items.size() < 2) {
+            List<R> res = new ArrayList<>();
+            for (T item : items) {
+                res.add(work.apply(item));
+            }
+            return res;
+        }
+        try {
+            return items.parallelStream().map(item -> {
+                IO_PERMITS.acquireUninterruptibly();
+                try {
+                    return work.apply(item);
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                } finally {
+                    IO_PERMITS.release();
+                }
+            }).toList();
+        } catch (UncheckedIOException excp) {
+            throw excp.getCause();
+        }
+    }
+
+    /** The most pieces of work that run at once.  Work is spread over the
+     *  common fork/join pool, one thread per core; on machines with more
+     *  cores than this, more concurrent reads only queue up at the disk. */
+    static final int IO_LIMIT = 32;
+
+    /** Permits for the pieces of work running. */
+    private static final Semaphore IO_PERMITS = new Semaphore(IO_LIMIT);
+}
@@ -0,0 +1,302 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of fetching from and pushing to remotes, also through the
+ *  daemon and in batches.  Main works on the repository in the current
+ *  directory, so each command runs in a new JVM in the directory of one of
+ *  the repositories made here.
+ *  @author Avery Bong
+ */
+public class RemoteTest {
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        _dir = Files.createTempDirectory("remotetest").toFile();
+        _r1 = new File(_dir, "r1");
+        _r2 = new File(_dir, "r2");
+        _r1.mkdir();
+        _r2.mkdir();
+        gitlet(_r1, "init");
+        Utils.writeContents(new File(_r1, "a.txt"), "one\n");
+        gitlet(_r1, "add", "a.txt");
+        gitlet(_r1, "commit", "one");
+        gitlet(_r2, "init");
+        Utils.writeContents(new File(_r2, "b.txt"), "two\n");
+        gitlet(_r2, "add", "b.txt");
+        gitlet(_r2, "commit", "two");
+        gitlet(_r2, "gc");
+        gitlet(_r2, "add-remote", "r1", "../r1/.gitlet");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(_dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                .forEach(File::delete);
+        }
+    }
+
+    /** Run gitlet with arguments ARGS in the directory DIR, with INPUT, if
+     *  not null, as its standard input, setting _status to its exit
+     *  status.  @return what it printed to standard output and standard
+     *  error. */
+    private static String run(File dir, String input, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList("java", "-cp",
+                System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+        Process p = new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).start();
+        try (OutputStream in = p.getOutputStream()) {
+            if (input != null) {
+                in.write(input.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String res = new String(p.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        _status = p.waitFor();
+        return res;
+    }
+
+    /** Run gitlet with arguments ARGS in the directory DIR.  @return what
+     *  it printed. */
+    private static String gitlet(File dir, String... args)
+            throws IOException, InterruptedException {
+        return run(dir, null, args);
+    }
+
+    /** @return the id of the head commit of the repository in DIR. */
+    private static String head(File dir)
+            throws IOException, InterruptedException {
+        Matcher m = Pattern.compile("commit ([0-9a-f]+)")
+            .matcher(gitlet(dir, "log"));
+        assertTrue(m.find());
+        return m.group(1);
+    }
+
+    /** Make the local repository's master the remote's, as if it had been
+     *  cloned from it. */
+    private void share() throws IOException, InterruptedException {
+        gitlet(_r2, "fetch", "r1", "master");
+        gitlet(_r2, "reset", head(_r1));
+    }
+
+    /** Commit CONTENTS as the file NAME in the repository in DIR. */
+    private static void commit(File dir, String name, String contents)
+            throws IOException, InterruptedException {
+        Utils.writeContents(new File(dir, name), contents);
+        gitlet(dir, "add", name);
+        gitlet(dir, "commit", contents.trim());
+    }
+
+    /** @return the ids of the commits in the repository in DIR. */
+    private static Set<String> commits(File dir) {
+        return new HashSet<>(Utils.plainFilenamesIn(
+                Utils.join(dir, ".gitlet", Git.COMMITS)));
+    }
+
+    /** @return the ids of the blobs and trees in the repository in DIR. */
+    private static Set<String> objects(File dir) {
+        return new Store(new File(dir, ".gitlet")).ids();
+    }
+
+    /** @return the paths and sizes of the files holding the commits,
+     *  blobs and trees of the repository in DIR. */
+    private static Map<String, Long> storedFiles(File dir)
+            throws IOException {
+        Map<String, Long> res = new TreeMap<>();
+        for (String name : new String[] {
+                Git.COMMITS, Store.OBJECTS, Store.PACKS }) {
+            Path top = Utils.join(dir, ".gitlet", name).toPath();
+            if (!Files.exists(top)) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(top)) {
+                for (Path f : (Iterable<Path>) paths::iterator) {
+                    res.put(f.toString(), f.toFile().length());
+                }
+            }
+        }
+        return res;
+    }
+
+    @Test
+    public void pushTest() throws IOException, InterruptedException {
+        share();
+        Set<String> commits = commits(_r2), objects = objects(_r2),
+            remoteCommits = commits(_r1), remoteObjects = objects(_r1);
+        commit(_r2, "c.txt", "four\n");
+        commit(_r2, "a.txt", "five\n");
+        Set<String> newCommits = commits(_r2), newObjects = objects(_r2);
+        newCommits.removeAll(commits);
+        newObjects.removeAll(objects);
+        assertEquals(2, newCommits.size());
+        assertEquals(4, newObjects.size());
+        assertEquals("", gitlet(_r2, "push", "r1", "master"));
+        Set<String> sent = commits(_r1), sentObjects = objects(_r1);
+        sent.removeAll(remoteCommits);
+        sentObjects.removeAll(remoteObjects);
+        assertEquals(newCommits, sent);
+        assertEquals(newObjects, sentObjects);
+        assertEquals("", gitlet(_r1, "checkout", head(_r2), "--", "c.txt"));
+        assertEquals("four\n",
+                Utils.readContentsAsString(new File(_r1, "c.txt")));
+    }
+
+    @Test
+    public void fetchTest() throws IOException, InterruptedException {
+        share();
+        Set<String> commits = commits(_r1), objects = objects(_r1);
+        commit(_r1, "a.txt", "three\n");
+        commit(_r2, "c.txt", "four\n");
+        Set<String> newCommits = commits(_r1), newObjects = objects(_r1);
+        newCommits.removeAll(commits);
+        newObjects.removeAll(objects);
+        Set<String> localCommits = commits(_r2),
+            localObjects = objects(_r2);
+        assertEquals("", gitlet(_r2, "fetch", "r1", "master"));
+        Set<String> got = commits(_r2), gotObjects = objects(_r2);
+        got.removeAll(localCommits);
+        gotObjects.removeAll(localObjects);
+        assertEquals(newCommits, got);
+        assertEquals(newObjects, gotObjects);
+    }
+
+    @Test
+    public void upToDateTest() throws IOException, InterruptedException {
+        share();
+        commit(_r2, "c.txt", "four\n");
+        assertEquals("", gitlet(_r2, "push", "r1", "master"));
+        Map<String, Long> remote = storedFiles(_r1),
+            local = storedFiles(_r2);
+        assertEquals("", gitlet(_r2, "push", "r1", "master"));
+        assertEquals(remote, storedFiles(_r1));
+        assertEquals("", gitlet(_r2, "fetch", "r1", "master"));
+        assertEquals(local, storedFiles(_r2));
+    }
+
+    /** @return a daemon serving the local repository, once it is
+     *  listening. */
+    private Process startDaemon() throws IOException, InterruptedException {
+        Process res = new ProcessBuilder("java", "-cp",
+                System.getProperty("java.class.path"), "gitlet.Main",
+                "daemon").directory(_r2).redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        File sock = Utils.join(_r2, ".gitlet", Daemon.SOCKET);
+        for (int i = 0; i < 100 && !sock.exists(); i += 1) {
+            Thread.sleep(100);
+        }
+        assertTrue(sock.exists());
+        return res;
+    }
+
+    /** Stop DAEMON, checking that it was still running. */
+    private void stopDaemon(Process daemon)
+            throws IOException, InterruptedException {
+        assertEquals("Daemon stopped.\n",
+                gitlet(_r2, "daemon", "--stop"));
+        daemon.waitFor();
+    }
+
+    @Test
+    public void daemonFetchTest()
+            throws IOException, InterruptedException {
+        Process daemon = startDaemon();
+        try {
+            assertEquals("", gitlet(_r2, "checkout", "--", "b.txt"));
+            assertEquals("", gitlet(_r2, "fetch", "r1", "master"));
+            assertEquals("", gitlet(_r2, "checkout", "r1/master"));
+            assertEquals("one\n",
+                    Utils.readContentsAsString(new File(_r2, "a.txt")));
+            assertFalse(new File(_r2, "b.txt").exists());
+        } finally {
+            stopDaemon(daemon);
+        }
+    }
+
+    @Test
+    public void daemonCrashTest()
+            throws IOException, InterruptedException {
+        Process daemon = startDaemon();
+        try {
+            assertEquals("Follow proper structure.\n", gitlet(_r2, "rm"));
+            assertEquals(0, _status);
+            assertTrue(gitlet(_r2, "commit").startsWith("daemon: "));
+            assertNotEquals(0, _status);
+            assertTrue(daemon.isAlive());
+            Utils.writeContents(new File(_r2, "c.txt"), "four\n");
+            assertEquals("", gitlet(_r2, "add", "c.txt"));
+            assertEquals(0, _status);
+            assertTrue(gitlet(_r2, "status")
+                    .contains("=== Staged Files ===\nc.txt\n"));
+        } finally {
+            stopDaemon(daemon);
+        }
+    }
+
+    @Test
+    public void batchCheckoutTest()
+            throws IOException, InterruptedException {
+        assertEquals("", run(_r2, "checkout -- b.txt\nfetch r1 master\n"
+                + "checkout r1/master\n", "batch"));
+        assertEquals("one\n",
+                Utils.readContentsAsString(new File(_r2, "a.txt")));
+    }
+
+    @Test
+    public void batchMergeTest()
+            throws IOException, InterruptedException {
+        share();
+        commit(_r1, "a.txt", "three\n");
+        commit(_r2, "c.txt", "four\n");
+        gitlet(_r2, "gc");
+        assertEquals("", run(_r2, "checkout -- c.txt\nfetch r1 master\n"
+                + "merge r1/master\n", "batch"));
+        assertEquals("three\n",
+                Utils.readContentsAsString(new File(_r2, "a.txt")));
+        assertEquals("four\n",
+                Utils.readContentsAsString(new File(_r2, "c.txt")));
+    }
+
+    @Test
+    public void batchCrashTest() throws IOException, InterruptedException {
+        Utils.writeContents(new File(_r2, "q1.txt"), "q1\n");
+        Utils.writeContents(new File(_r2, "q2.txt"), "q2\n");
+        String out = run(_r2, "add q1.txt\ncommit\nadd q2.txt\n", "batch");
+        assertTrue(out.startsWith("batch: command 2: "));
+        assertTrue(gitlet(_r2, "status")
+                .contains("=== Staged Files ===\nq1.txt\nq2.txt\n"));
+    }
+
+    /** The folder holding the repositories. */
+    private File _dir;
+
+    /** The remote repository and the local one, which has the other as
+     *  remote r1. */
+    private File _r1, _r2;
+
+    /** The exit status of the last command run. */
+    private static int _status;
+}
@@ -12,10 +12,9 @@ public class Remove implements Command {
         if (command.length != 1) {
             Main.error("Follow proper structure.");
         }
-        String name = command[0];
-        if (!s._stage.containsKey(name)
-                && !s.branches().get(s.currentBranch())
-                ._files.containsKey(name)) {
+        String name = Main.path(Utils.join(Main.getCwd(), command[0]));
+        if (!s.stagedFiles().containsKey(name)
+                && !s.files(s.head()).containsKey(name)) {
             Main.error("No reason to remove the file.");
         }
         s.remove(name);
@@ -11,9 +11,8 @@ public class Reset implements Command {
     public int run(Git s, String[] command) throws IOException {
         String hash = command[0];
         s.checkoutNode(command[0]);
-        s.branches().replace(s.currentBranch(), s.findNode(hash));
-        s._stage.clear();
-        s._removal.clear();
+        s.branches().replace(s.currentBranch(), s.findNode(hash)._hash);
+        s.resetIndex(s.head());
         return 0;
     }
 }
@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The blobs of one .gitlet folder.  A blob is either loose, deflated in
+ *  its own file under objects/, or in one of the packs under packs/.
+ *  @author Avery Bong
+ */
+public class Store {
+
+    /** The blobs stored in the .gitlet folder STORAGE. */
+    public Store(File storage) {
+        _objects = Utils.join(storage, OBJECTS);
+        _packDir = Utils.join(storage, PACKS);
+    }
+
+    /** @return the location of the loose blob with id HASH: the file named
+     *  by the rest of HASH in the folder named by its first two digits. */
+    public File loose(String hash) {
+        return Utils.join(_objects, hash.substring(0, 2), hash.substring(2));
+    }
+
+    /** @return the packs in this store, opening them the first time. */
+    public synchronized List<Pack> packs() {
+        if (_packs == null) {
+            List<Pack> packs = new ArrayList<>();
+            File[] idxs = _packDir.listFiles((d, n) -> n.endsWith(Pack.IDX));
+            if (idxs != null) {
+                for (File idx : idxs) {
+                    packs.add(new Pack(idx));
+                }
+            }
+            _packs = packs;
+        }
+        return _packs;
+    }
+
+    /** @return the pack holding HASH, or null if it is loose or absent. */
+    private Pack packOf(String hash) {
+        for (Pack p : packs()) {
+            if (p.contains(hash)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /** @return true iff the blob with id HASH is in this store. */
+    public boolean contains(String hash) {
+        return loose(hash).exists() || packOf(hash) != null;
+    }
+
+    /** @return a stream of the original contents of the blob with id
+     *  HASH. Can throw IOException. */
+    public InputStream open(String hash) throws IOException {
+        File f = loose(hash);
+        if (f.exists()) {
+            return new InflaterInputStream(new BufferedInputStream(
+                    Files.newInputStream(f.toPath())));
+        }
+        Pack p = packOf(hash);
+        if (p == null) {
+            throw new FileNotFoundException(hash);
+        }
+        return p.open(p.find(hash));
+    }
+
+    /** @return the contents of the blob with id HASH, which should be small
+     *  enough to hold in memory. */
+    public byte[] read(String hash) throws IOException {
+        File f = loose(hash);
+        Pack p = f.exists() ? null : packOf(hash);
+        if (p != null) {
+            return p.read(p.find(hash));
+        }
+        try (InputStream in = open(hash)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** @return true iff HASH is stored whole rather than as a delta, so
+     *  that copyRaw may be used on it. */
+    public boolean isFull(String hash) throws IOException {
+        if (loose(hash).exists()) {
+            return true;
+        }
+        Pack p = packOf(hash);
+        if (p == null) {
+            throw new FileNotFoundException(hash);
+        }
+        return !p.isDelta(p.find(hash));
+    }
+
+    /** @return the length of the stored form of HASH: its deflated
+     *  contents, or its deflated delta if it is not isFull. */
+    public long rawLength(String hash) throws IOException {
+        File f = loose(hash);
+        if (f.exists()) {
+            return f.length();
+        }
+        Pack p = packOf(hash);
+        if (p == null) {
+            throw new FileNotFoundException(hash);
+        }
+        return p.rawLength(p.find(hash));
+    }
+
+    /** Write the deflated contents of HASH, which must be isFull, to
+     *  OUT. */
+    public void copyRaw(String hash, OutputStream out) throws IOException {
+        File f = loose(hash);
+        if (f.exists()) {
+            Files.copy(f.toPath(), out);
+            return;
+        }
+        Pack p = packOf(hash);
+        if (p == null) {
+            throw new FileNotFoundException(hash);
+        }
+        p.copyRaw(p.find(hash), out);
+    }
+
+    /** @return the ids of the loose blobs in this store, in order. */
+    public Set<String> looseIds() {
+        Set<String> res = new TreeSet<>();
+        File[] dirs = _objects.listFiles();
+        if (dirs == null) {
+            return res;
+        }
+        for (File dir : dirs) {
+            String[] rest = dir.list();
+            if (rest != null) {
+                for (String r : rest) {
+                    res.add(dir.getName() + r);
+                }
+            }
+        }
+        return res;
+    }
+
+    /** @return the ids of all blobs in this store, in order. */
+    public Set<String> ids() {
+        Set<String> res = looseIds();
+        for (Pack p : packs()) {
+            res.addAll(p.ids());
+        }
+        return res;
+    }
+
+    /** Copy the blobs with ids HASHES from FROM into this store, as
+     *  packs, deltifying them according to BASES as for Pack.write.  Blobs
+     *  too large to pack are copied loose. */
+    public void transfer(Store from, Collection<String> hashes,
+                         Map<String, String> bases) throws IOException {
+        List<String> toPack = new ArrayList<>();
+        for (String h : hashes) {
+            if (contains(h)) {
+                continue;
+            } else if (from.rawLength(h) >= Pack.MAX_PACK_SIZE / 2) {
+                File dst = loose(h);
+                dst.getParentFile().mkdirs();
+                try (OutputStream out = Files.newOutputStream(dst.toPath())) {
+                    from.copyRaw(h, out);
+                }
+            } else {
+                toPack.add(h);
+            }
+        }
+        Collections.sort(toPack);
+        Pack.write(_packDir, toPack, from, bases);
+        _packs = null;
+    }
+
+    /** Move every loose blob small enough into packs, deltifying them
+     *  according to BASES as for Pack.write, and delete the loose
+     *  copies. */
+    public void repack(Map<String, String> bases) throws IOException {
+        List<String> loose = new ArrayList<>();
+        for (String h : looseIds()) {
+            if (loose(h).length() < Pack.MAX_PACK_SIZE / 2) {
+                loose.add(h);
+            }
+        }
+        Pack.write(_packDir, loose, this, bases);
+        _packs = null;
+        for (String h : loose) {
+            Files.delete(loose(h).toPath());
+        }
+    }
+
+    /** Replace every pack and loose blob with new packs holding just the
+     *  blobs in KEEP, deltified according to BASES as for Pack.write.
+     *  Blobs in KEEP too large to pack stay loose; all others are
+     *  deleted. */
+    public void repackAll(Set<String> keep, Map<String, String> bases)
+            throws IOException {
+        List<Pack> old = packs();
+        Set<String> loose = looseIds();
+        List<String> toPack = new ArrayList<>();
+        for (String h : ids()) {
+            if (keep.contains(h) && rawLength(h) < Pack.MAX_PACK_SIZE / 2) {
+                toPack.add(h);
+            }
+        }
+        List<File> written = Pack.write(_packDir, toPack, this, bases);
+        _packs = null;
+        for (Pack p : old) {
+            if (!written.contains(p.idxFile())) {
+                Files.delete(p.idxFile().toPath());
+                Files.delete(p.packFile().toPath());
+            }
+        }
+        Set<String> packed = new HashSet<>(toPack);
+        for (String h : loose) {
+            if (!keep.contains(h) || packed.contains(h)) {
+                Files.delete(loose(h).toPath());
+            }
+        }
+        deleteStaleTemps(_packDir);
+    }
+
+    /** Delete the temporary files in DIR last changed more than TMP_GRACE
+     *  milliseconds ago.  Younger ones may still be being written by a
+     *  command running alongside. */
+    static void deleteStaleTemps(File dir) {
+        File[] tmps = dir.listFiles((d, n) -> n.endsWith(".tmp"));
+        if (tmps != null) {
+            long cutoff = System.currentTimeMillis() - TMP_GRACE;
+            for (File tmp : tmps) {
+                if (tmp.lastModified() < cutoff) {
+                    tmp.delete();
+                }
+            }
+        }
+    }
+
+    /** @return an estimate of the number of loose blobs, from the number
+     *  in one of the folders they are spread over. */
+    public int looseEstimate() {
+        String[] sample = Utils.join(_objects, SAMPLE).list();
+        return sample == null ? 0 : sample.length * FANOUT;
+    }
+
+    /** Store CONTENTS, which are small enough to hold in memory, as a loose
+     *  blob unless this store already has them.  @return their id. */
+    public String add(byte[] contents) throws IOException {
+        String hash = Utils.sha1(contents);
+        if (!contains(hash)) {
+            File tmp = File.createTempFile("blob", null,
+                    _objects.getParentFile());
+            try (OutputStream out = new DeflaterOutputStream(
+                    Files.newOutputStream(tmp.toPath()))) {
+                out.write(contents);
+            }
+            addLoose(tmp, hash);
+        }
+        return hash;
+    }
+
+    /** Move the deflated blob TMP into place as the loose blob HASH, unless
+     *  this store already has it. */
+    public void addLoose(File tmp, String hash) throws IOException {
+        if (contains(hash)) {
+            tmp.delete();
+            return;
+        }
+        File dst = loose(hash);
+        dst.getParentFile().mkdirs();
+        Files.move(tmp.toPath(), dst.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** The folder of loose blobs. */
+    private final File _objects;
+
+    /** The folder of packs. */
+    private final File _packDir;
+
+    /** The open packs, or null if not yet opened. */
+    private volatile List<Pack> _packs;
+
+    /** Name of the folder holding loose blobs. */
+    static final String OBJECTS = "objects";
+
+    /** Name of the folder holding packs. */
+    static final String PACKS = "packs";
+
+    /** The loose blob folder counted by looseEstimate. */
+    private static final String SAMPLE = "17";
+
+    /** The number of loose blob folders. */
+    private static final int FANOUT = 256;
+
+    /** Age in milliseconds past which a leftover temporary file is taken
+     *  to be abandoned. */
+    static final long TMP_GRACE = 60 * 60 * 1000L;
+}
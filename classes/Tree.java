@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Snapshots of directories.  A tree lists the entries of one directory,
+ *  in order of name, each as the id of its blob, or of its own tree for a
+ *  subdirectory, followed by its name, with a '/' after the names of
+ *  subdirectories.  Trees are stored in the store like blobs, under the
+ *  SHA-1 of that listing, so a tree's id stands for everything below it:
+ *  a directory that two commits have in common has one tree that both
+ *  share, and comparing the ids of two trees is enough to know that
+ *  nothing under them differs.  Files are named by their path from the top
+ *  of the working directory, with '/' between its parts.
+ *  @author Avery Bong
+ */
+class Tree {
+
+    /** Store the trees of the files FILES, a map of paths to blob ids, in
+     *  STORE, skipping those it already has.  @return the id of the top
+     *  tree. */
+    static String write(Store store, Map<String, String> files) {
+        return update(store, null, files);
+    }
+
+    /** Store the trees of the tree with id ID in STORE, which may be null
+     *  for an empty tree, with the changes CHANGES made to it, each a path
+     *  mapped to its new blob id or to null to remove it.  Only the trees
+     *  of directories on the way to a change are read and written; the
+     *  rest are shared with ID.  A directory left empty is removed.
+     *  @return the id of the new top tree. */
+    static String update(Store store, String id, Map<String, String> changes) {
+        try {
+            String res = update(store, id, new TreeMap<>(changes), "");
+            return res != null ? res : store(store, new TreeMap<>());
+        } catch (IOException excp) {
+            throw new GitletException("Could not write tree.");
+        }
+    }
+
+    /** Store the tree of the directory DIR, which is "" or ends in '/', as
+     *  it is in the tree with id ID in STORE, which may be null, with those
+     *  of CHANGES under it made to it.  @return its id, or null if it is
+     *  left empty. */
+    private static String update(Store store, String id,
+                                 NavigableMap<String, String> changes,
+                                 String dir) throws IOException {
+        Map<String, String> entries = entries(store, id);
+        String path = changes.ceilingKey(dir);
+        while (path != null && path.startsWith(dir)) {
+            int slash = path.indexOf('/', dir.length());
+            String name;
+            String entry;
+            if (slash < 0) {
+                name = path.substring(dir.length());
+                entry = changes.get(path);
+                path = changes.higherKey(path);
+            } else {
+                String sub = path.substring(0, slash + 1);
+                name = sub.substring(dir.length());
+                entry = update(store, entries.get(name), changes, sub);
+                path = changes.ceilingKey(path.substring(0, slash) + AFTER);
+            }
+            if (entry == null) {
+                entries.remove(name);
+            } else {
+                entries.put(name, entry);
+            }
+        }
+        return entries.isEmpty() ? null : store(store, entries);
+    }
+
+    /** Store the tree whose entries are ENTRIES, in order of name, in
+     *  STORE.  @return its id. */
+    private static String store(Store store, Map<String, String> entries)
+            throws IOException {
+        StringBuilder tree = new StringBuilder();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            tree.append(e.getValue()).append(' ').append(e.getKey())
+                .append('\n');
+        }
+        return store.add(tree.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return the entries of the tree with id ID in STORE, or no entries
+     *  if ID is null: the name of each mapped to its id. */
+    static Map<String, String> entries(Store store, String id) {
+        Map<String, String> res = new TreeMap<>();
+        if (id == null) {
+            return res;
+        }
+        String tree;
+        try {
+            tree = new String(store.read(id), StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new GitletException("Could not read tree " + id + ".");
+        }
+        for (int start = 0, end; start < tree.length(); start = end + 1) {
+            end = tree.indexOf('\n', start);
+            res.put(tree.substring(start + Utils.UID_LENGTH + 1, end),
+                    tree.substring(start, start + Utils.UID_LENGTH));
+        }
+        return res;
+    }
+
+    /** @return the paths of every file under the tree with id ID in STORE
+     *  mapped to their blob ids, in order of path. */
+    static Map<String, String> files(Store store, String id) {
+        Map<String, String> res = new TreeMap<>();
+        files(store, id, "", res);
+        return res;
+    }
+
+    /** Add the files under the tree with id ID in STORE, which is the
+     *  directory DIR, to RES. */
+    private static void files(Store store, String id, String dir,
+                              Map<String, String> res) {
+        for (Map.Entry<String, String> e : entries(store, id).entrySet()) {
+            if (e.getKey().endsWith("/")) {
+                files(store, e.getValue(), dir + e.getKey(), res);
+            } else {
+                res.put(dir + e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** @return the paths of the files that differ between the trees with
+     *  ids A and B in STORE, either of which may be null for an empty tree,
+     *  mapped to their blob ids under B, or to null where B lacks them, in
+     *  order of path.  Subtrees with the same id are not read. */
+    static Map<String, String> changes(Store store, String a, String b) {
+        Map<String, String> res = new TreeMap<>();
+        changes(store, a, b, "", res);
+        return res;
+    }
+
+    /** Add the changes between the trees with ids A and B in STORE, which
+     *  are the directory DIR, to RES. */
+    private static void changes(Store store, String a, String b, String dir,
+                                Map<String, String> res) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Map<String, String> entriesA = entries(store, a),
+            entriesB = entries(store, b);
+        Set<String> names = new TreeSet<>(entriesA.keySet());
+        names.addAll(entriesB.keySet());
+        for (String name : names) {
+            String x = entriesA.get(name), y = entriesB.get(name);
+            if (Objects.equals(x, y)) {
+                continue;
+            } else if (name.endsWith("/")) {
+                changes(store, x, y, dir + name, res);
+            } else {
+                res.put(dir + name, y);
+            }
+        }
+    }
+
+    /** Add to RES the ids of the tree with id B in STORE and of the trees
+     *  and blobs below it, except those that are at the same path under
+     *  the tree with id A, which may be null for an empty tree.  Subtrees
+     *  with the same id are not read. */
+    static void added(Store store, String a, String b, Set<String> res) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        res.add(b);
+        Map<String, String> entriesA = entries(store, a);
+        for (Map.Entry<String, String> e : entries(store, b).entrySet()) {
+            String x = entriesA.get(e.getKey()), y = e.getValue();
+            if (Objects.equals(x, y)) {
+                continue;
+            } else if (e.getKey().endsWith("/")) {
+                added(store, x, y, res);
+            } else {
+                res.add(y);
+            }
+        }
+    }
+
+    /** Add the id of the tree with id ID in STORE, and of every tree below
+     *  it, to RES.  Trees already in RES are not read again. */
+    static void ids(Store store, String id, Set<String> res) {
+        if (!res.add(id)) {
+            return;
+        }
+        for (Map.Entry<String, String> e : entries(store, id).entrySet()) {
+            if (e.getKey().endsWith("/")) {
+                ids(store, e.getValue(), res);
+            }
+        }
+    }
+
+    /** The character just after '/', which follows every path in a
+     *  directory when appended to the directory's name. */
+    private static final char AFTER = '/' + 1;
+}
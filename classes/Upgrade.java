@@ -0,0 +1,355 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/** Conversion of repositories made by the original Gitlet, which kept
+ *  every commit, the branches and the staging area in the one serialized
+ *  system file, and each blob in a file named by its hash directly in
+ *  .gitlet.  The old system file is read once, with stand-ins for the
+ *  original classes, and its commits are written out as commit objects
+ *  with trees, keeping their ids, its blobs moved into the store, and its
+ *  staging area written as the index.  Only then is the system file
+ *  replaced and are the old blob files deleted, so a conversion that is
+ *  interrupted is simply done again the next time.
+ *  @author Avery Bong
+ */
+class Upgrade {
+
+    /** @return true iff SYSTEM is a system file of the original Gitlet:
+     *  one holding a Git whose serialVersionUID is not that of the current
+     *  one. */
+    static boolean needed(File system) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(system.toPath())))) {
+            return in.readShort() == ObjectStreamConstants.STREAM_MAGIC
+                && in.readShort() == ObjectStreamConstants.STREAM_VERSION
+                && in.readByte() == ObjectStreamConstants.TC_OBJECT
+                && in.readByte() == ObjectStreamConstants.TC_CLASSDESC
+                && in.readUTF().equals(Git.class.getName())
+                && in.readLong()
+                    != ObjectStreamClass.lookup(Git.class).getSerialVersionUID();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Convert the repository in the .gitlet folder STORAGE, whose system
+     *  file is that of the original Gitlet. */
+    static void convert(File storage) {
+        File system = Utils.join(storage, SYSTEM);
+        OldGit old;
+        try (ObjectInputStream in = new OldReader(
+                Files.newInputStream(system.toPath()))) {
+            old = (OldGit) in.readObject();
+        } catch (IOException | ClassNotFoundException
+                | ClassCastException excp) {
+            throw new GitletException("Could not convert this repository "
+                    + "from the original Gitlet format.");
+        }
+        try {
+            new Upgrade(storage, old).run();
+        } catch (IOException excp) {
+            throw new GitletException("Could not convert this repository "
+                    + "from the original Gitlet format.");
+        }
+    }
+
+    /** A conversion of the repository in STORAGE, whose system file holds
+     *  OLD. */
+    private Upgrade(File storage, OldGit old) {
+        _storage = storage;
+        _old = old;
+        _system = new Git(storage, old._currentBranch);
+    }
+
+    /** Convert the repository. */
+    private void run() throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (OldNode n : commits()) {
+            ids.add(writeCommit(n));
+        }
+        _system.reindex(ids);
+        for (Map.Entry<String, OldNode> e : _old._branches.entrySet()) {
+            _system._branches.put(e.getKey(), e.getValue()._hash);
+        }
+        _system._remotes.putAll(_old._remotes);
+        _system._conflicted.addAll(_old._conflicted);
+        _system._pull = _old._pull;
+        Map<String, String> staged =
+            blobs(_old._branches.get(_old._currentBranch)._files);
+        for (Map.Entry<String, File> e : _old._stage.entrySet()) {
+            if (e.getValue() != null) {
+                staged.put(e.getKey(), blob(e.getValue()));
+            }
+        }
+        staged.keySet().removeAll(_old._removal.keySet());
+        _system.index().reset(staged);
+        _system.saveIndex();
+        File tmp = new File(_storage, SYSTEM + ".tmp");
+        Utils.writeObject(tmp, _system);
+        Files.move(tmp.toPath(), Utils.join(_storage, SYSTEM).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        File[] oldBlobs = _storage.listFiles((d, name) ->
+                name.length() == Utils.UID_LENGTH
+                && name.chars().allMatch(c -> Character.digit(c, 16) >= 0));
+        for (File f : oldBlobs) {
+            Files.delete(f.toPath());
+        }
+    }
+
+    /** @return every commit of the old system, parents first. */
+    private List<OldNode> commits() {
+        List<OldNode> res = new ArrayList<>();
+        Set<OldNode> done = new HashSet<>();
+        ArrayDeque<OldNode> todo = new ArrayDeque<>();
+        List<OldNode> starts = new ArrayList<>(_old._nodes.values());
+        starts.addAll(_old._branches.values());
+        for (OldNode start : starts) {
+            todo.push(start);
+            while (!todo.isEmpty()) {
+                OldNode n = todo.peek();
+                if (done.contains(n)) {
+                    todo.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (OldNode p : n._pred) {
+                    if (!done.contains(p)) {
+                        todo.push(p);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    todo.pop();
+                    done.add(n);
+                    res.add(n);
+                }
+            }
+        }
+        return res;
+    }
+
+    /** Store the trees of the old commit N, whose parents have been
+     *  written, and write it as a commit object with the same id.
+     *  @return its id. */
+    private String writeCommit(OldNode n) throws IOException {
+        Map<String, String> files = blobs(n._files);
+        Map<String, String> changes = new HashMap<>(files);
+        String parentTree = null;
+        List<String> parents = new ArrayList<>();
+        for (OldNode p : n._pred) {
+            parents.add(p._hash);
+        }
+        if (!n._pred.isEmpty()) {
+            OldNode first = n._pred.get(0);
+            parentTree = _trees.get(first._hash);
+            Map<String, String> before = blobs(first._files);
+            changes.entrySet().removeIf(e ->
+                    e.getValue().equals(before.get(e.getKey())));
+            for (String name : before.keySet()) {
+                if (!files.containsKey(name)) {
+                    changes.put(name, null);
+                }
+            }
+        }
+        String tree = Tree.update(_system.store(), parentTree, changes);
+        _trees.put(n._hash, tree);
+        Git.Node commit = new Git.Node(n._message, n._commitTime, parents,
+                tree, null);
+        commit._hash = n._hash;
+        Utils.writeObject(Utils.join(_storage, Git.COMMITS, n._hash),
+                commit);
+        return n._hash;
+    }
+
+    /** @return FILES, a map of file names to the old files holding their
+     *  contents, with the files replaced by the ids of their blobs. */
+    private Map<String, String> blobs(Map<String, File> files)
+            throws IOException {
+        Map<String, String> res = new HashMap<>();
+        for (Map.Entry<String, File> e : files.entrySet()) {
+            res.put(e.getKey(), blob(e.getValue()));
+        }
+        return res;
+    }
+
+    /** @return the id of the blob holding the contents of the old blob
+     *  file F, adding it to the store the first time.  The original merge
+     *  recorded a conflicted file as the working file itself rather than
+     *  a copy in .gitlet; its present contents are used, or no contents
+     *  if it is gone, which is what checking it out would have given. */
+    private String blob(File f) throws IOException {
+        String res = _blobs.get(f.getPath());
+        if (res == null) {
+            File stored = new File(_storage, f.getName());
+            if (!stored.isFile()) {
+                stored = f.isAbsolute() ? f
+                    : new File(_storage.getParentFile(), f.getPath());
+            }
+            res = _system.store().add(stored.isFile()
+                    ? Files.readAllBytes(stored.toPath()) : new byte[0]);
+            _blobs.put(f.getPath(), res);
+        }
+        return res;
+    }
+
+    /** Reads the system file of the original Gitlet, reading its Git, its
+     *  commits and the lists of their parents as the stand-ins below.
+     *  These have the same fields, apart from those the compiler adds to
+     *  refer to enclosing objects, which are only counted. */
+    private static class OldReader extends ObjectInputStream {
+
+        /** A reader of the system file IN. */
+        OldReader(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> local;
+            String name = desc.getName();
+            if (name.equals("gitlet.Git")) {
+                local = OldGit.class;
+            } else if (name.equals("gitlet.Git$Node")) {
+                local = OldNode.class;
+            } else if (name.startsWith("gitlet.Git$Node$")
+                    && desc.getFields().length == 2) {
+                local = OldParents.class;
+            } else if (name.startsWith("gitlet.Git$Node$")
+                    && desc.getFields().length == 3) {
+                local = OldMergeParents.class;
+            } else {
+                return desc;
+            }
+            ObjectStreamClass res = ObjectStreamClass.lookup(local);
+            if (!sameFields(desc.getFields(), res.getFields())) {
+                throw new InvalidClassException(name);
+            }
+            return res;
+        }
+
+        /** @return true iff the fields A of a class in the stream are
+         *  read as the fields B: they are of the same kinds, in the same
+         *  order, with the same names apart from those with a '$' in
+         *  them. */
+        private static boolean sameFields(ObjectStreamField[] a,
+                                          ObjectStreamField[] b) {
+            if (a.length != b.length) {
+                return false;
+            }
+            for (int i = 0; i < a.length; i += 1) {
+                if (a[i].getTypeCode() != b[i].getTypeCode()
+                        || (!a[i].getName().contains("$")
+                            && !a[i].getName().equals(b[i].getName()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Stand-in for the original Git. */
+    private static class OldGit implements Serializable {
+        /** All commits indexed by their hash. */
+        private Map<String, OldNode> _nodes;
+        /** The head commits of the branches indexed by their name. */
+        private Map<String, OldNode> _branches;
+        /** Staged files indexed by their name, or null values for files
+         *  no longer to be removed. */
+        private Map<String, File> _stage;
+        /** Files staged for removal. */
+        private Map<String, File> _removal;
+        /** Remote .gitlet folders indexed by their name. */
+        private Map<String, File> _remotes;
+        /** List of conflict errors. */
+        private List<String> _conflicted;
+        /** The active branch. */
+        private String _currentBranch;
+        /** Trigger if happened. */
+        private boolean _pull;
+    }
+
+    /** Stand-in for an original commit. */
+    private static class OldNode implements Serializable {
+        /** The hash for this commit. */
+        private String _hash;
+        /** The commit message. */
+        private String _message;
+        /** The time this commit was made. */
+        private ZonedDateTime _commitTime;
+        /** File names mapped to the old files holding their contents. */
+        private Map<String, File> _files;
+        /** The parent commits. */
+        private List<OldNode> _pred;
+        /** The child commits. */
+        private List<OldNode> _next;
+        /** The Git holding this commit. */
+        private Object _system;
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof OldNode
+                && Objects.equals(((OldNode) o)._hash, _hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(_hash);
+        }
+    }
+
+    /** Stand-in for the list of parents of an original commit. */
+    private static class OldParents extends ArrayList<OldNode> {
+        /** The enclosing objects. */
+        private Object _system, _node;
+    }
+
+    /** Stand-in for the list of parents of an original merge commit. */
+    private static class OldMergeParents extends ArrayList<OldNode> {
+        /** The enclosing objects. */
+        private Object _system, _other, _node;
+    }
+
+    /** The .gitlet folder being converted. */
+    private final File _storage;
+
+    /** The old system read from it. */
+    private final OldGit _old;
+
+    /** The converted system. */
+    private final Git _system;
+
+    /** Blob ids of the old blob files, by path. */
+    private final Map<String, String> _blobs = new HashMap<>();
+
+    /** Ids of the top trees of the commits written so far, by commit
+     *  id. */
+    private final Map<String, String> _trees = new HashMap<>();
+
+    /** Name of the system file. */
+    private static final String SYSTEM = "system";
+}
@@ -0,0 +1,363 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Keeps track, in a long-running process, of the working files and of
+ *  which of them have changed, so that commands need not list and stat
+ *  the whole working directory.  Every directory of the working tree is
+ *  watched with a WatchService, and a thread collects the paths that
+ *  events name into a dirty set.  refresh applies the dirty set to the
+ *  list of working files and forgets their known blob ids; everything else
+ *  is known not to have changed.  Before that, refresh creates a hidden
+ *  cookie file at the top and waits for its event, which comes after those
+ *  of every earlier change, so no change made before a command is missed.
+ *  If events were lost, or the cookie does not arrive, the working
+ *  directory is scanned again in full.  Only one command uses a watcher at
+ *  a time.
+ *  @author Avery Bong
+ */
+class Watcher {
+
+    /** Start watching the working directory TOP for the rest of this
+     *  process. */
+    static void start(File top) throws IOException {
+        _current = new Watcher(top.toPath().toAbsolutePath().normalize());
+    }
+
+    /** Stop watching. */
+    static void stop() {
+        if (_current != null) {
+            try {
+                _current._service.close();
+            } catch (IOException excp) {
+                /* Nothing more will be read from it. */
+            }
+            _current = null;
+        }
+    }
+
+    /** @return the watcher of this process, or null if there is none. */
+    static Watcher current() {
+        return _current;
+    }
+
+    /** A watcher of the working directory TOP. */
+    private Watcher(Path top) throws IOException {
+        _top = top;
+        _service = top.getFileSystem().newWatchService();
+        Thread thread = new Thread(this::watch, "gitlet-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Bring the working files up to date with every change made so far.
+     *  @return the paths of all working files, in order, which may be
+     *  used until the next refresh. */
+    NavigableSet<String> refresh() throws IOException {
+        sync();
+        Set<String> dirty, created;
+        boolean rescan;
+        synchronized (this) {
+            rescan = _rescan;
+            dirty = _dirty;
+            created = _created;
+            _rescan = false;
+            _dirty = new HashSet<>();
+            _created = new HashSet<>();
+        }
+        if (rescan) {
+            _present.clear();
+            _blobs.clear();
+            unregister(_top);
+            scan(_top, true);
+            return _present;
+        }
+        for (String path : dirty) {
+            Path p = _top.resolve(path);
+            _blobs.remove(path);
+            _present.remove(path);
+            if (created.contains(path) || !Files.isDirectory(p)) {
+                forgetUnder(path);
+            }
+            if (Files.isRegularFile(p)) {
+                _present.add(path);
+            } else if (created.contains(path) && Files.isDirectory(p)) {
+                scan(p, false);
+            }
+        }
+        return _present;
+    }
+
+    /** Forget the working files under the directory with path DIR. */
+    private void forgetUnder(String dir) {
+        NavigableSet<String> under = _present.subSet(dir + "/", true,
+                dir + AFTER, false);
+        for (String path : under) {
+            _blobs.remove(path);
+        }
+        under.clear();
+    }
+
+    /** @return the blob id of the working file PATH when it was last
+     *  hashed, if it has not changed since, or null. */
+    String blob(String path) {
+        return _blobs.get(path);
+    }
+
+    /** Record that the working file PATH, which has not changed since the
+     *  last refresh, has blob id BLOB. */
+    void setBlob(String path, String blob) {
+        _blobs.put(path, blob);
+    }
+
+    /** Wait until every change made before now has been seen, by creating
+     *  a cookie file and waiting for its event.  Asks for a rescan if it
+     *  does not come in time. */
+    private void sync() throws IOException {
+        long n;
+        synchronized (this) {
+            n = ++_cookies;
+        }
+        Path cookie = _top.resolve(COOKIE + n);
+        Files.createFile(cookie);
+        try {
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + SYNC_WAIT;
+                while (_seen < n && !_rescan) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        _rescan = true;
+                        break;
+                    }
+                    wait(left);
+                }
+            }
+        } catch (InterruptedException excp) {
+            synchronized (this) {
+                _rescan = true;
+            }
+        } finally {
+            Files.deleteIfExists(cookie);
+        }
+    }
+
+    /** Watch DIR and every directory under it not hidden, and add the
+     *  files under it to the working files, forgetting their blob ids
+     *  unless ALL, when there are none to forget. */
+    private void scan(Path dir, boolean all) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d,
+                    BasicFileAttributes attrs) throws IOException {
+                if (!d.equals(_top) && hidden(d)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path f,
+                    BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !hidden(f)) {
+                    String path = path(f);
+                    _present.add(path);
+                    if (!all) {
+                        _blobs.remove(path);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path f, IOException excp) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Start watching the directory DIR, if it is not already watched. */
+    private synchronized void register(Path dir) throws IOException {
+        if (!_watched.containsKey(dir)) {
+            WatchKey key = dir.register(_service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            _watched.put(dir, key);
+            _dirs.put(key, dir);
+        }
+    }
+
+    /** Stop watching the directory DIR and those under it, which have
+     *  been deleted or moved away, or are to be watched afresh. */
+    private synchronized void unregister(Path dir) {
+        _watched.entrySet().removeIf(e -> {
+            if (e.getKey().startsWith(dir)) {
+                e.getValue().cancel();
+                _dirs.remove(e.getValue());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /** Collect events until the watch service is closed. */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = _service.take();
+                Path dir;
+                synchronized (this) {
+                    dir = _dirs.get(key);
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow();
+                    } else if (dir != null) {
+                        record(dir.resolve((Path) event.context()),
+                                event.kind());
+                    }
+                }
+                if (!key.reset()) {
+                    synchronized (this) {
+                        _dirs.remove(key);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException excp) {
+            /* Watching has stopped. */
+        }
+    }
+
+    /** Record the event of kind KIND on the file or directory P. */
+    private void record(Path p, WatchEvent.Kind<?> kind) {
+        String name = p.getFileName().toString();
+        if (name.startsWith(COOKIE)) {
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                synchronized (this) {
+                    try {
+                        long n = Long.parseLong(
+                                name.substring(COOKIE.length()));
+                        _seen = Math.max(_seen, n);
+                    } catch (NumberFormatException excp) {
+                        /* Not one of ours. */
+                    }
+                    notifyAll();
+                }
+            }
+            return;
+        } else if (hidden(p)) {
+            return;
+        }
+        String path = path(p);
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            unregister(p);
+        } else if (kind == StandardWatchEventKinds.ENTRY_CREATE
+                && Files.isDirectory(p)) {
+            try {
+                registerAll(p);
+            } catch (IOException excp) {
+                overflow();
+                return;
+            }
+            synchronized (this) {
+                _created.add(path);
+            }
+        }
+        synchronized (this) {
+            _dirty.add(path);
+        }
+    }
+
+    /** Watch the new directory DIR and the directories under it. */
+    private void registerAll(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d,
+                    BasicFileAttributes attrs) throws IOException {
+                if (hidden(d)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Note that events were lost, so that the next refresh rescans. */
+    private synchronized void overflow() {
+        _rescan = true;
+        notifyAll();
+    }
+
+    /** @return the path in commits of the working file P. */
+    private String path(Path p) {
+        return _top.relativize(p).toString().replace(File.separatorChar, '/');
+    }
+
+    /** @return true iff P is hidden, as .gitlet is. */
+    private static boolean hidden(Path p) {
+        return p.getFileName().toString().startsWith(".");
+    }
+
+    /** The watcher of this process, or null. */
+    private static Watcher _current;
+
+    /** The top of the working directory. */
+    private final Path _top;
+
+    /** The watch service. */
+    private final WatchService _service;
+
+    /** The watched directories and their keys. */
+    private final Map<Path, WatchKey> _watched = new HashMap<>();
+
+    /** The directory of each key. */
+    private final Map<WatchKey, Path> _dirs = new HashMap<>();
+
+    /** Paths named by events since the last refresh. */
+    private Set<String> _dirty = new HashSet<>();
+
+    /** Directories created since the last refresh. */
+    private Set<String> _created = new HashSet<>();
+
+    /** True iff the working directory must be scanned in full, because
+     *  events may have been lost or it has not been scanned yet. */
+    private boolean _rescan = true;
+
+    /** The number of cookies made, and the largest whose event has been
+     *  seen. */
+    private long _cookies, _seen;
+
+    /** The paths of all working files, as of the last refresh. */
+    private final NavigableSet<String> _present = new TreeSet<>();
+
+    /** Known blob ids of working files unchanged since they were hashed. */
+    private final Map<String, String> _blobs = new HashMap<>();
+
+    /** Prefix of the names of cookie files. */
+    private static final String COOKIE = ".gitlet-cookie-";
+
+    /** Milliseconds to wait for a cookie before rescanning instead. */
+    private static final long SYNC_WAIT = 2000;
+
+    /** The character just after '/'. */
+    private static final char AFTER = '/' + 1;
+}